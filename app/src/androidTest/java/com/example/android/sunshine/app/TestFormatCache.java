@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks the cached dates against the formatting Utility did before FormatCache, which is
+    copied below as it was, only with the clock passed in.  The cache has to give the same
+    strings after midnight, and after the locale or the time zone changes.
+ */
+public class TestFormatCache extends AndroidTestCase {
+
+    private static final int[] STYLES = {
+            FormatCache.DAY_NAME,
+            FormatCache.FORMATTED_MONTH_DAY,
+            FormatCache.FRIENDLY_DAY,
+            FormatCache.FRIENDLY_DAY_LONG_TODAY,
+            FormatCache.FULL_FRIENDLY_DAY,
+    };
+
+    private Locale mDefaultLocale;
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mDefaultLocale);
+        TimeZone.setDefault(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    /*
+        Every style, for the days around now, at times of day on either side of midnight.
+     */
+    public void testMatchesBaseline() {
+        Locale[] locales = {Locale.US, Locale.FRANCE, Locale.JAPAN};
+        String[] timeZones = {"UTC", "America/Los_Angeles", "Asia/Kolkata"};
+        for (Locale locale : locales) {
+            Locale.setDefault(locale);
+            for (String timeZone : timeZones) {
+                TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+                long midnight = getMidnight(2015, Calendar.JUNE, 8);
+                long[] nows = {midnight, midnight + 12 * 3600000L, midnight + 24 * 3600000L - 1};
+                for (long now : nows) {
+                    assertMatchesBaseline(now, midnight);
+                }
+            }
+        }
+    }
+
+    public void testCrossingMidnight() {
+        Locale.setDefault(Locale.US);
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        long midnight = getMidnight(2015, Calendar.JUNE, 8);
+        long today = midnight + 12 * 3600000L;
+        long tomorrow = today + 24 * 3600000L;
+        FormatCache cache = FormatCache.getInstance();
+
+        String before = cache.formatDate(mContext, today, FormatCache.DAY_NAME, midnight - 1);
+        assertEquals("Error: the day after now should be tomorrow",
+                mContext.getString(R.string.tomorrow), before);
+        assertEquals(mContext.getString(R.string.today),
+                cache.formatDate(mContext, tomorrow, FormatCache.DAY_NAME, tomorrow));
+
+        // A millisecond later it is the day itself, and the days after it have moved up too
+        assertEquals("Error: the day wasn't reformatted after midnight",
+                mContext.getString(R.string.today),
+                cache.formatDate(mContext, today, FormatCache.DAY_NAME, midnight));
+        assertEquals(mContext.getString(R.string.tomorrow),
+                cache.formatDate(mContext, tomorrow, FormatCache.DAY_NAME, midnight));
+        assertMatchesBaseline(midnight, midnight);
+        assertMatchesBaseline(midnight - 1, midnight);
+    }
+
+    public void testLocaleChange() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        long midnight = getMidnight(2015, Calendar.JUNE, 8);
+        long now = midnight + 12 * 3600000L;
+        long nextWeek = midnight + 10 * 24 * 3600000L;
+        FormatCache cache = FormatCache.getInstance();
+
+        Locale.setDefault(Locale.US);
+        String english = cache.formatDate(mContext, nextWeek, FormatCache.FRIENDLY_DAY, now);
+        assertEquals(baselineFriendlyDay(mContext, nextWeek, false, now), english);
+
+        Locale.setDefault(Locale.FRANCE);
+        String french = cache.formatDate(mContext, nextWeek, FormatCache.FRIENDLY_DAY, now);
+        assertEquals("Error: the date wasn't reformatted for the new locale",
+                baselineFriendlyDay(mContext, nextWeek, false, now), french);
+        assertFalse("Error: the date of the old locale was kept", english.equals(french));
+        assertMatchesBaseline(now, midnight);
+
+        // Temperatures are formatted for the default locale as well
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 21.5),
+                cache.formatTemperature(mContext, 21.5));
+    }
+
+    public void testTimeZoneChange() {
+        Locale.setDefault(Locale.US);
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        // 23:00 on June 8 in UTC, but already 08:00 on June 9 in Tokyo
+        long now = getMidnight(2015, Calendar.JUNE, 8) + 23 * 3600000L;
+        long date = now + 2 * 3600000L;
+        FormatCache cache = FormatCache.getInstance();
+
+        assertEquals(mContext.getString(R.string.tomorrow),
+                cache.formatDate(mContext, date, FormatCache.DAY_NAME, now));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        assertEquals("Error: the date wasn't reformatted for the new time zone",
+                mContext.getString(R.string.today),
+                cache.formatDate(mContext, date, FormatCache.DAY_NAME, now));
+        assertMatchesBaseline(now, getMidnight(2015, Calendar.JUNE, 9));
+    }
+
+    /*
+        Compares every style for the days from two before to ten after the one starting at
+        midnight, at a few hours of each.
+     */
+    private void assertMatchesBaseline(long now, long midnight) {
+        FormatCache cache = FormatCache.getInstance();
+        for (int day = -2; day <= 10; day++) {
+            for (int hour : new int[]{0, 11, 23}) {
+                long date = midnight + (day * 24L + hour) * 3600000L;
+                for (int style : STYLES) {
+                    assertEquals("Error: wrong date for style " + style + " in "
+                                    + Locale.getDefault() + ", " + TimeZone.getDefault().getID(),
+                            baseline(mContext, date, style, now),
+                            cache.formatDate(mContext, date, style, now));
+                }
+            }
+        }
+    }
+
+    private static long getMidnight(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String baseline(Context context, long dateInMillis, int style, long now) {
+        switch (style) {
+            case FormatCache.DAY_NAME:
+                return baselineDayName(context, dateInMillis, now);
+            case FormatCache.FORMATTED_MONTH_DAY:
+                return baselineFormattedMonthDay(context, dateInMillis);
+            case FormatCache.FRIENDLY_DAY:
+                return baselineFriendlyDay(context, dateInMillis, false, now);
+            case FormatCache.FRIENDLY_DAY_LONG_TODAY:
+                return baselineFriendlyDay(context, dateInMillis, true, now);
+            case FormatCache.FULL_FRIENDLY_DAY:
+                return baselineFullFriendlyDay(context, dateInMillis, now);
+            default:
+                throw new IllegalArgumentException("Unknown date style: " + style);
+        }
+    }
+
+    // The offset Time.setToNow() would have found at that time
+    private static long getGmtOffset(long now) {
+        return TimeZone.getDefault().getOffset(now) / 1000;
+    }
+
+    private static String baselineFriendlyDay(Context context, long dateInMillis,
+                                              boolean displayLongToday, long now) {
+        long gmtoff = getGmtOffset(now);
+        int julianDay = Time.getJulianDay(dateInMillis, gmtoff);
+        int currentJulianDay = Time.getJulianDay(now, gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    baselineFormattedMonthDay(context, dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return baselineDayName(context, dateInMillis, now);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String baselineFullFriendlyDay(Context context, long dateInMillis, long now) {
+        String day = baselineDayName(context, dateInMillis, now);
+        int formatId = R.string.format_full_friendly_date;
+        return String.format(context.getString(
+                formatId,
+                day,
+                baselineFormattedMonthDay(context, dateInMillis)));
+    }
+
+    private static String baselineDayName(Context context, long dateInMillis, long now) {
+        long gmtoff = getGmtOffset(now);
+        int julianDay = Time.getJulianDay(dateInMillis, gmtoff);
+        int currentJulianDay = Time.getJulianDay(now, gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String baselineFormattedMonthDay(Context context, long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
@@ -55,6 +55,11 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherConditionEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.TrendEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.PackedForecastEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationSearchEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -144,6 +149,17 @@ public class TestDb extends AndroidTestCase {
         // Second Step (Weather): Create weather values
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
+        // The description isn't stored in the weather table, but once per weather id in the
+        // weather condition table
+        ContentValues conditionValues = new ContentValues();
+        conditionValues.put(WeatherContract.WeatherConditionEntry.COLUMN_CONDITION_ID,
+                weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        conditionValues.put(WeatherContract.WeatherConditionEntry.COLUMN_SHORT_DESC,
+                weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        assertTrue(db.insert(WeatherContract.WeatherConditionEntry.TABLE_NAME, null,
+                conditionValues) != -1);
+        weatherValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
         long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
         assertTrue(weatherRowId != -1);
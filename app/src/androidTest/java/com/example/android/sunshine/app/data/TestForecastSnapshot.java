@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.TrendEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Packs the forecast TestProvider bulk inserts, through the provider
+    private byte[] packTestForecast(ContentValues[] weatherValues) {
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                weatherValues);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_PACKED_FORECAST, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: no packed forecast returned for the location", result);
+        return result.getByteArray(WeatherContract.KEY_PACKED_FORECAST);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        deleteAllRecords();
+    }
+
+    public void testReadBackWhatWasWritten() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        ForecastSnapshot.write(mContext, TestUtilities.TEST_LOCATION,
+                packTestForecast(weatherValues));
+
+        PackedForecast forecast = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: the snapshot just written couldn't be read", forecast);
+        assertEquals("Error: wrong number of days in the snapshot",
+                weatherValues.length, forecast.getCount());
+
+        Bundle weather = ForecastSnapshot.getDayWeather(mContext, TestUtilities.TEST_LOCATION,
+                weatherValues[3].getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE), true);
+        assertNotNull("Error: a day of the snapshot wasn't found", weather);
+        assertEquals("Error: wrong max temperature read from the snapshot",
+                weatherValues[3].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                weather.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP), 0.001);
+
+        assertNull("Error: the snapshot was returned for another location",
+                ForecastSnapshot.read(mContext, "another location"));
+    }
+
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ForecastSnapshot.write(mContext, TestUtilities.TEST_LOCATION,
+                packTestForecast(TestProvider.createBulkInsertWeatherValues(locationRowId)));
+
+        // Flip a byte of the payload behind the snapshot's back
+        File file = new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(ForecastSnapshot.HEADER_SIZE + 4);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(ForecastSnapshot.HEADER_SIZE + 4);
+            randomAccessFile.write(value ^ 0xff);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        assertNull("Error: a snapshot failing its checksum was returned",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION));
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -24,12 +26,22 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationSearchEntry;
+import com.example.android.sunshine.app.data.WeatherContract.TrendEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherConditionEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +68,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                TrendEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -147,11 +169,11 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location should return WeatherEntry.CONTENT_TYPE",
                 WeatherEntry.CONTENT_TYPE, type);
 
-        long testDate = 1419120000L; // December 21st, 2014
-        // content://com.example.android.sunshine.app/weather/94074/20140612
+        int testDate = 2457013; // December 21st, 2014
+        // content://com.example.android.sunshine.app/weather/94074/2457013
         type = mContext.getContentResolver().getType(
                 WeatherEntry.buildWeatherLocationWithDate(testLocation, testDate));
-        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/1419120000
+        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/2457013
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
@@ -179,7 +201,17 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        // The description goes to the weather condition table, the provider joins it back
+        ContentValues weatherRowValues = new ContentValues(weatherValues);
+        weatherRowValues.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        ContentValues conditionValues = new ContentValues();
+        conditionValues.put(WeatherConditionEntry.COLUMN_CONDITION_ID,
+                weatherValues.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        conditionValues.put(WeatherConditionEntry.COLUMN_SHORT_DESC,
+                weatherValues.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        db.insert(WeatherConditionEntry.TABLE_NAME, null, conditionValues);
+
+        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherRowValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -424,11 +456,10 @@ public class TestProvider extends AndroidTestCase {
 
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
-        long currentTestDate = TestUtilities.TEST_DATE;
-        long millisecondsInADay = 1000*60*60*24;
+        int currentTestDate = TestUtilities.TEST_DATE;
         ContentValues[] returnContentValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
 
-        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate+= millisecondsInADay ) {
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate++ ) {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
@@ -512,4 +543,742 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test pages through the weather of a location a few days at a time, and checks that
+        the pages follow each other without missing or repeating a day.
+     */
+    public void testWeatherPages() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        final int pageSize = 3;
+        int day = 0;
+        int afterDate = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, afterDate,
+                            pageSize),
+                    null, null, null, null);
+            assertTrue("Error: a page has more rows than its limit", cursor.getCount() <= pageSize);
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                break;
+            }
+            while (cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testWeatherPages. Error validating day " + day,
+                        cursor, weatherValues[day++]);
+                afterDate = cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            }
+            cursor.close();
+        }
+        assertEquals("Error: the pages don't add up to the whole forecast",
+                weatherValues.length, day);
+
+        try {
+            mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(
+                    TestUtilities.TEST_LOCATION).buildUpon().appendQueryParameter(
+                    WeatherEntry.QUERY_PARAMETER_LIMIT, "1; DROP TABLE weather").build(),
+                    null, null, null, null);
+            fail("Error: an invalid page limit was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /*
+        This test reads a few days of two locations with a single weather/multi query.
+     */
+    public void testWeatherForSeveralLocations() {
+        long northPoleRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] northPoleWeather = createBulkInsertWeatherValues(northPoleRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, northPoleWeather);
+
+        ContentValues fairbanksValues = new ContentValues();
+        fairbanksValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99701");
+        fairbanksValues.put(LocationEntry.COLUMN_CITY_NAME, "Fairbanks");
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LAT, 64.8378);
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LONG, -147.7164);
+        long fairbanksRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, fairbanksValues));
+        ContentValues[] fairbanksWeather = createBulkInsertWeatherValues(fairbanksRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, fairbanksWeather);
+
+        // Days 2 to 4 of both, the weather of an unknown location being simply missing
+        int startDate = northPoleWeather[2].getAsInteger(WeatherEntry.COLUMN_DATE);
+        int endDate = northPoleWeather[4].getAsInteger(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherMultiUri(
+                        new String[]{TestUtilities.TEST_LOCATION, "99701", "unknown"},
+                        startDate, endDate),
+                null, null, null, null);
+        assertEquals("Error: wrong number of rows for several locations", 6, cursor.getCount());
+
+        // Sorted by location setting, then date
+        int settingColumn = cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(cursor.moveToNext());
+            ContentValues[] expectedWeather = i < 3 ? fairbanksWeather : northPoleWeather;
+            assertEquals("Error: rows of several locations not sorted by location",
+                    i < 3 ? "99701" : TestUtilities.TEST_LOCATION, cursor.getString(settingColumn));
+            TestUtilities.validateCurrentRecord("testWeatherForSeveralLocations. Error " +
+                    "validating row " + i, cursor, expectedWeather[2 + i % 3]);
+        }
+        cursor.close();
+    }
+
+    /*
+        This test checks that bulk inserting locations updates the ones that already exist in
+        place, keeping their ids, and notifies the location URI.
+     */
+    public void testBulkUpsertLocations() {
+        long northPoleRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues northPoleValues = TestUtilities.createNorthPoleLocationValues();
+        northPoleValues.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        ContentValues fairbanksValues = new ContentValues();
+        fairbanksValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99701");
+        fairbanksValues.put(LocationEntry.COLUMN_CITY_NAME, "Fairbanks");
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LAT, 64.8378);
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LONG, -147.7164);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                LocationEntry.CONTENT_URI, true, locationObserver);
+
+        int upsertCount = mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                new ContentValues[]{northPoleValues, fairbanksValues});
+
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        assertEquals("Error: wrong number of locations written", 2, upsertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION},
+                null
+        );
+        assertTrue("Error: the existing location is gone", cursor.moveToFirst());
+        assertEquals("Error: the existing location was replaced instead of updated",
+                northPoleRowId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        TestUtilities.validateCurrentRecord("testBulkUpsertLocations. Error validating the " +
+                "updated location.", cursor, northPoleValues);
+        assertFalse("Error: the location setting is in the table twice", cursor.moveToNext());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: wrong number of locations after the upsert", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A batch of writes should be reported once, when it is over, however many operations
+        it had.
+     */
+    public void testApplyBatchNotifiesOnce() throws Exception {
+        TestUtilities.waitForPendingNotifications(mContext);
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                LocationEntry.CONTENT_URI, true, locationObserver);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + i);
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        locationObserver.waitForChangeCount(1,
+                TestUtilities.getNotificationQuietMillis(mContext));
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        locationObserver.mHT.quit();
+
+        assertEquals("Error: wrong number of operations applied", 3, results.length);
+        assertEquals("Error: the batch should have been notified once",
+                1, locationObserver.mChangeCount.get());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: wrong number of locations after the batch", 3, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test checks that the maintenance call drops weather older than today for every
+        location, and the locations left without weather, except the one we ask it to keep.
+     */
+    public void testRunMaintenance() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "orphan");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        // TEST_DATE is long gone, so this row is past the retention window
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_RUN_MAINTENANCE, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: maintenance call returned no result", result);
+        assertEquals("Error: old weather was not deleted by maintenance",
+                1, result.getInt(WeatherContract.KEY_WEATHER_DELETED));
+        assertEquals("Error: only the orphaned location should have been deleted",
+                1, result.getInt(WeatherContract.KEY_LOCATIONS_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        TestUtilities.validateCursor("testRunMaintenance.  Error validating the kept location.",
+                cursor, TestUtilities.createNorthPoleLocationValues());
+    }
+
+    /*
+        The history has to survive the weather rows being purged, and the trends have to be
+        brought up to date by the same bulk insert, without counting a day twice when the
+        forecast for it is received again.
+     */
+    public void testHistoryAndTrends() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        // The next sync sends the same days again
+        bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                HistoryEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: the history should hold one row per day",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // All the test days fall into the same month, whatever the time zone
+        cursor = mContext.getContentResolver().query(
+                TrendEntry.buildTrendLocation(TestUtilities.TEST_LOCATION, TrendEntry.PERIOD_MONTH),
+                null,
+                null,
+                null,
+                null
+        );
+        ContentValues expectedMonth = new ContentValues();
+        expectedMonth.put(TrendEntry.COLUMN_DAY_COUNT, BULK_INSERT_RECORDS_TO_INSERT);
+        expectedMonth.put(TrendEntry.COLUMN_MIN_TEMP, 65.0 - (BULK_INSERT_RECORDS_TO_INSERT - 1));
+        expectedMonth.put(TrendEntry.COLUMN_MAX_TEMP, 75.0 + (BULK_INSERT_RECORDS_TO_INSERT - 1));
+        expectedMonth.put(TrendEntry.COLUMN_MEAN_TEMP, 70.0);
+        assertEquals("Error: expected a single monthly trend", 1, cursor.getCount());
+        TestUtilities.validateCursor("testHistoryAndTrends.  Error validating the monthly trend.",
+                cursor, expectedMonth);
+
+        // Ten consecutive days span two or three weeks depending on the first day
+        cursor = mContext.getContentResolver().query(
+                TrendEntry.buildTrendLocation(TestUtilities.TEST_LOCATION, TrendEntry.PERIOD_WEEK),
+                null,
+                null,
+                null,
+                TrendEntry.COLUMN_PERIOD_START + " ASC"
+        );
+        int dayCount = 0;
+        while (cursor.moveToNext()) {
+            dayCount += cursor.getInt(cursor.getColumnIndex(TrendEntry.COLUMN_DAY_COUNT));
+        }
+        assertEquals("Error: the weekly trends should cover every day once",
+                BULK_INSERT_RECORDS_TO_INSERT, dayCount);
+        cursor.close();
+    }
+
+    /*
+        A sync commits the location, its days and the purge of the days before the first one it
+        keeps in a single call.
+     */
+    public void testCommitForecast() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues yesterday = TestUtilities.createWeatherValues(locationRowId);
+        yesterday.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, yesterday);
+
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues day : forecast) {
+            day.remove(WeatherEntry.COLUMN_LOC_KEY);
+        }
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.remove(LocationEntry.COLUMN_LOCATION_SETTING);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, TestUtilities.TEST_LOCATION,
+                WeatherEntry.buildCommitForecastExtras(location, forecast, TestUtilities.TEST_DATE));
+
+        assertEquals("Error: wrong number of days written",
+                BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.KEY_WEATHER_COUNT));
+        assertEquals("Error: the day before the first one kept should have been deleted",
+                1, result.getInt(WeatherContract.KEY_WEATHER_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertTrue("Error: the location is gone", cursor.moveToFirst());
+        assertEquals("Error: the location was replaced instead of updated",
+                locationRowId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals("Error: the location was not updated", "Santa's Village",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: wrong number of days after the commit",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testCommitForecast.  Error validating the first day.",
+                cursor, forecast[0]);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: the committed days should have been archived with the old one",
+                BULK_INSERT_RECORDS_TO_INSERT + 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Exporting the database and importing it back should bring back every day of weather
+        and history, to a tenth of a unit, and rebuild the trends.
+     */
+    public void testArchiveRoundTrip() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        File archive = new File(mContext.getCacheDir(), "testArchiveRoundTrip");
+        ParcelFileDescriptor file = ParcelFileDescriptor.open(archive,
+                ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE
+                        | ParcelFileDescriptor.MODE_WRITE_ONLY);
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.KEY_ARCHIVE_FILE, file);
+        Bundle exported = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_EXPORT_ARCHIVE, null, extras);
+        file.close();
+
+        assertNotNull("Error: the export failed", exported);
+        assertEquals("Error: wrong number of locations exported",
+                1, exported.getInt(WeatherContract.KEY_LOCATION_COUNT));
+        assertEquals("Error: wrong number of weather rows exported",
+                BULK_INSERT_RECORDS_TO_INSERT, exported.getInt(WeatherContract.KEY_WEATHER_COUNT));
+        assertEquals("Error: wrong number of history rows exported",
+                BULK_INSERT_RECORDS_TO_INSERT, exported.getInt(WeatherContract.KEY_HISTORY_COUNT));
+
+        deleteAllRecordsFromProvider();
+
+        file = ParcelFileDescriptor.open(archive, ParcelFileDescriptor.MODE_READ_ONLY);
+        extras.putParcelable(WeatherContract.KEY_ARCHIVE_FILE, file);
+        Bundle imported = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_IMPORT_ARCHIVE, null, extras);
+        file.close();
+        archive.delete();
+
+        assertNotNull("Error: the import failed", imported);
+        assertEquals("Error: wrong number of weather rows imported",
+                BULK_INSERT_RECORDS_TO_INSERT, imported.getInt(WeatherContract.KEY_WEATHER_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: wrong number of days after the import",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (ContentValues expected : bulkInsertContentValues) {
+            cursor.moveToNext();
+            assertEquals("Error: wrong date after the import",
+                    (int) expected.getAsInteger(WeatherEntry.COLUMN_DATE),
+                    cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            assertEquals("Error: wrong description after the import",
+                    expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            for (String column : new String[]{WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE, WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES}) {
+                assertEquals("Error: " + column + " is off by more than its rounding",
+                        expected.getAsDouble(column),
+                        cursor.getDouble(cursor.getColumnIndex(column)), 0.05);
+            }
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                TrendEntry.buildTrendLocation(TestUtilities.TEST_LOCATION, TrendEntry.PERIOD_MONTH),
+                null,
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: the trends were not rebuilt", cursor.moveToFirst());
+        assertEquals("Error: the monthly trend should cover every imported day",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getInt(cursor.getColumnIndex(TrendEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+    }
+
+    /*
+        Reads of the per location weather URIs are cached by the provider.  Make sure a write
+        to the location is never hidden by a result cached before it.
+     */
+    public void testCachedWeatherIsInvalidated() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        TestUtilities.validateCursor("testCachedWeatherIsInvalidated.  Error validating first read.",
+                cursor, weatherValues);
+
+        // Reading again must give the same result, and not a cursor closed by the first caller
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        TestUtilities.validateCursor("testCachedWeatherIsInvalidated.  Error validating cached read.",
+                cursor, weatherValues);
+
+        // The sync replaces the forecast for the same day
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues});
+
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        TestUtilities.validateCursor("testCachedWeatherIsInvalidated.  Error validating read after write.",
+                cursor, weatherValues);
+    }
+
+    /*
+        Writes should only be reported on the days they touched, so that an observer of
+        another day isn't woken up.
+     */
+    public void testNotificationsAreScopedToTheAffectedDay() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        TestUtilities.waitForPendingNotifications(mContext);
+
+        int firstDate = bulkInsertContentValues[0].getAsInteger(WeatherEntry.COLUMN_DATE);
+        int lastDate = bulkInsertContentValues[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .getAsInteger(WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver firstDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, firstDate),
+                false, firstDayObserver);
+        TestUtilities.TestContentObserver lastDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, lastDate),
+                false, lastDayObserver);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Integer.toString(firstDate)});
+
+        firstDayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(firstDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(lastDayObserver);
+
+        assertFalse("Error: deleting the first day should not notify observers of the last day",
+                lastDayObserver.mContentChanged);
+    }
+
+    public void testGetDayWeather() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        // A day in the middle of the forecast, exactly
+        Bundle weather = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_DAY_WEATHER, TestUtilities.TEST_LOCATION,
+                WeatherEntry.buildDayWeatherExtras(
+                        bulkInsertContentValues[3].getAsInteger(WeatherEntry.COLUMN_DATE), true));
+        assertNotNull("Error: no weather returned for a day of the forecast", weather);
+        assertEquals("Error: wrong day returned",
+                (int) bulkInsertContentValues[3].getAsInteger(WeatherEntry.COLUMN_DATE),
+                weather.getInt(WeatherEntry.COLUMN_DATE));
+        assertEquals("Error: wrong max temperature returned",
+                bulkInsertContentValues[3].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                weather.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+
+        // A day before the forecast gives the first day of the forecast, unless it has to be exact
+        int dayBefore = TestUtilities.TEST_DATE - 1;
+        weather = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_DAY_WEATHER, TestUtilities.TEST_LOCATION,
+                WeatherEntry.buildDayWeatherExtras(dayBefore, false));
+        assertNotNull("Error: no weather returned from a day before the forecast", weather);
+        assertEquals("Error: the first day of the forecast should have been returned",
+                (int) bulkInsertContentValues[0].getAsInteger(WeatherEntry.COLUMN_DATE),
+                weather.getInt(WeatherEntry.COLUMN_DATE));
+
+        weather = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_DAY_WEATHER, TestUtilities.TEST_LOCATION,
+                WeatherEntry.buildDayWeatherExtras(dayBefore, true));
+        assertNull("Error: weather returned for a day missing from the forecast", weather);
+    }
+
+    /*
+        Descriptions are stored once per weather id, and still read back with every day.
+     */
+    public void testDescriptionsAreStoredOnce() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        bulkInsertContentValues[1].put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+        bulkInsertContentValues[1].put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        Cursor cursor = dbHelper.getReadableDatabase().query(WeatherConditionEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: expected one description per weather id", 2, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: wrong number of days", BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: wrong description for day " + i,
+                    bulkInsertContentValues[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    cursor.getString(0));
+        }
+        cursor.close();
+    }
+
+    /*
+        An update or delete may still name the description, even though it isn't a column of
+        the weather table anymore.
+     */
+    public void testUpdateAndDeleteByDescription() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        bulkInsertContentValues[1].put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+        bulkInsertContentValues[1].put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        // Only the description changes, so the weather table has nothing to write
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Drizzle");
+        int count = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updateValues,
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[]{"Rain"});
+        assertEquals("Error: wrong number of rows updated by description", 1, count);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: wrong number of days", BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: wrong description for day " + i,
+                    i == 1 ? "Drizzle" : bulkInsertContentValues[i].getAsString(
+                            WeatherEntry.COLUMN_SHORT_DESC),
+                    cursor.getString(0));
+        }
+        cursor.close();
+
+        count = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[]{"Drizzle"});
+        assertEquals("Error: wrong number of rows deleted by description", 1, count);
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: wrong number of days left after the delete",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testPackedForecast() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_PACKED_FORECAST, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: no packed forecast returned for the location", result);
+        PackedForecast forecast = PackedForecast.unpack(
+                result.getByteArray(WeatherContract.KEY_PACKED_FORECAST));
+        assertNotNull("Error: the packed forecast couldn't be unpacked", forecast);
+        assertEquals("Error: wrong number of days packed",
+                bulkInsertContentValues.length, forecast.getCount());
+        for (int i = 0; i < bulkInsertContentValues.length; i++) {
+            assertEquals("Error: wrong date packed for day " + i,
+                    (int) bulkInsertContentValues[i].getAsInteger(WeatherEntry.COLUMN_DATE),
+                    forecast.getDate(i));
+            assertEquals("Error: wrong max temperature packed for day " + i,
+                    bulkInsertContentValues[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    forecast.getMaxTemp(i), 0.001);
+            assertEquals("Error: wrong description packed for day " + i,
+                    bulkInsertContentValues[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    forecast.getShortDesc(i));
+        }
+        assertEquals("Error: wrong first day found in the middle of the forecast",
+                2, forecast.findFirstDayOnOrAfter(
+                        bulkInsertContentValues[2].getAsInteger(WeatherEntry.COLUMN_DATE)));
+
+        // Deleting the weather must drop the packed copy along with it
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_PACKED_FORECAST, TestUtilities.TEST_LOCATION, null);
+        assertNull("Error: a packed forecast was returned after deleting the weather", result);
+    }
+
+    public void testLocationSearch() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        // Our location is found by the start of its city name, and comes before bundled cities
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("nor"), null, null, null, null);
+        assertTrue("Error: no suggestion returned for a known location", cursor.moveToFirst());
+        assertEquals("Error: the known location wasn't suggested first",
+                TestUtilities.TEST_LOCATION, cursor.getString(
+                        cursor.getColumnIndex(LocationSearchEntry.COLUMN_SUGGESTION)));
+        assertEquals("Error: the suggestion doesn't point at the known location",
+                locationRowId, cursor.getLong(
+                        cursor.getColumnIndex(LocationSearchEntry.COLUMN_LOC_KEY)));
+        cursor.close();
+
+        // Every word is a prefix, and the bundled cities are searched too
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("new y"), null, null, null, null);
+        assertTrue("Error: no suggestion returned from the bundled cities", cursor.moveToFirst());
+        assertEquals("Error: wrong bundled city suggested", "New York, US", cursor.getString(
+                cursor.getColumnIndex(LocationSearchEntry.COLUMN_SUGGESTION)));
+        assertTrue("Error: a bundled city shouldn't point at a location",
+                cursor.isNull(cursor.getColumnIndex(LocationSearchEntry.COLUMN_LOC_KEY)));
+        cursor.close();
+
+        try {
+            mContext.getContentResolver().query(LocationEntry.buildLocationSearchUri("new y")
+                    .buildUpon().appendQueryParameter(
+                            LocationEntry.QUERY_PARAMETER_LIMIT, "many").build(),
+                    null, null, null, null);
+            fail("Error: an invalid search limit was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // Deleting the location takes it out of the index
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri("north pole"), null, null, null, null);
+        assertEquals("Error: a deleted location is still suggested", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testLocationsNear() {
+        // Written straight to the database, so it has no geohash and must still be found
+        long northPoleRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues fairbanksValues = new ContentValues();
+        fairbanksValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99701");
+        fairbanksValues.put(LocationEntry.COLUMN_CITY_NAME, "Fairbanks");
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LAT, 64.8378);
+        fairbanksValues.put(LocationEntry.COLUMN_COORD_LONG, -147.7164);
+        long fairbanksRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, fairbanksValues));
+
+        ContentValues londonValues = new ContentValues();
+        londonValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "London, GB");
+        londonValues.put(LocationEntry.COLUMN_CITY_NAME, "London");
+        londonValues.put(LocationEntry.COLUMN_COORD_LAT, 51.51);
+        londonValues.put(LocationEntry.COLUMN_COORD_LONG, -0.13);
+        long londonRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, londonValues));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(64.8, -147.5, 50), null, null, null, null);
+        assertEquals("Error: wrong number of locations near North Pole", 2, cursor.getCount());
+        HashSet<Long> nearIds = new HashSet<>();
+        double lastDistance = 0;
+        int distanceColumn = cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE);
+        while (cursor.moveToNext()) {
+            nearIds.add(cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+            assertTrue("Error: nearby locations aren't sorted by distance",
+                    cursor.getDouble(distanceColumn) >= lastDistance);
+            lastDistance = cursor.getDouble(distanceColumn);
+        }
+        assertTrue("Error: North Pole wasn't found near itself", nearIds.contains(northPoleRowId));
+        assertTrue("Error: Fairbanks wasn't found near North Pole",
+                nearIds.contains(fairbanksRowId));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(51.5, -0.1, 10), null, null, null, null);
+        assertTrue("Error: London wasn't found near itself", cursor.moveToFirst());
+        assertEquals("Error: wrong location found near London", londonRowId,
+                cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertFalse("Error: a far away location was found near London", cursor.moveToNext());
+        cursor.close();
+    }
+
+    public void testDiagnostics() {
+        TestUtilities.insertNorthPoleLocationValues(mContext);
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.DiagnosticsEntry.buildLatencyUri(), null, null, null, null);
+        boolean found = false;
+        while (cursor.moveToNext()) {
+            String operation = cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_OPERATION));
+            int match = cursor.getInt(
+                    cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_MATCH));
+            if ("query".equals(operation) && match == WeatherProvider.LOCATION) {
+                found = true;
+                assertTrue("Error: the location query wasn't counted", cursor.getLong(
+                        cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_COUNT)) >= 1);
+                assertTrue("Error: the rows returned weren't counted", cursor.getLong(
+                        cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_ROWS)) >= 1);
+            }
+        }
+        cursor.close();
+        assertTrue("Error: no latencies recorded for the location query", found);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.DiagnosticsEntry.buildSlowOperationsUri(), null, null, null, null);
+        assertNotNull("Error: the slow operations couldn't be queried", cursor);
+        cursor.close();
+    }
 }
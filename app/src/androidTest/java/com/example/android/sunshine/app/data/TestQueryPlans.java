@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.TrendEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherConditionEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    Checks that every query the provider runs on a hot path is answered from an index, against a
+    database the size of one that has been in use for years.  Correctness is covered by TestDb
+    and TestProvider; this catches the index regressions that would only show up as jank.
+    Maintenance queries, which look at every row on purpose, are left out.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final int LOCATION_COUNT = 2000;
+    private static final int FORECAST_DAYS = 14;
+    private static final int HISTORY_LOCATION_COUNT = 20;
+    private static final int HISTORY_DAYS = 3 * 365;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        seedDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void seedDatabase() {
+        SQLiteStatement insertLocation = mDb.compileStatement("INSERT INTO " +
+                LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ", " +
+                LocationEntry.COLUMN_GEOHASH + ") VALUES (?, ?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = mDb.compileStatement("INSERT INTO " +
+                WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, 800, ?, ?, 50, 1000, 5, 90)");
+        SQLiteStatement insertHistory = mDb.compileStatement("INSERT INTO " +
+                HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_DATE + ", " +
+                HistoryEntry.COLUMN_WEATHER_ID + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_PRESSURE + ", " +
+                HistoryEntry.COLUMN_WIND_SPEED + ", " +
+                HistoryEntry.COLUMN_DEGREES + ") VALUES (?, ?, 800, ?, ?, 50, 1000, 5, 90)");
+
+        int today = WeatherContract.getJulianDay(System.currentTimeMillis());
+        mDb.beginTransaction();
+        try {
+            mDb.execSQL("INSERT INTO " + WeatherConditionEntry.TABLE_NAME + " (" +
+                    WeatherConditionEntry.COLUMN_CONDITION_ID + ", " +
+                    WeatherConditionEntry.COLUMN_SHORT_DESC + ") VALUES (800, 'Clear')");
+            for (int location = 1; location <= LOCATION_COUNT; location++) {
+                // Spread over the globe, so the geohashes are spread over the index
+                double lat = -60 + (location * 7919 % 12000) / 100.0;
+                double lon = -180 + (location * 104729 % 36000) / 100.0;
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location " + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, lat);
+                insertLocation.bindDouble(5, lon);
+                insertLocation.bindString(6, GeoHash.encode(lat, lon, GeoHash.PRECISION));
+                insertLocation.executeInsert();
+
+                for (int day = 0; day < FORECAST_DAYS; day++) {
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, today + day);
+                    insertWeather.bindDouble(3, day);
+                    insertWeather.bindDouble(4, day + 10);
+                    insertWeather.executeInsert();
+                }
+
+                if (location <= HISTORY_LOCATION_COUNT) {
+                    for (int day = 0; day < HISTORY_DAYS; day++) {
+                        insertHistory.bindLong(1, location);
+                        insertHistory.bindLong(2, today - day);
+                        insertHistory.bindDouble(3, day % 30);
+                        insertHistory.bindDouble(4, day % 30 + 10);
+                        insertHistory.executeInsert();
+                    }
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insertLocation.close();
+            insertWeather.close();
+            insertHistory.close();
+        }
+    }
+
+    /*
+        The queries the provider runs for its URIs and call() methods, and on every sync, by
+        name.  They are built from the provider's own builders and selections, so the test
+        follows whatever the provider does.
+     */
+    private static Map<String, String> getHotQueries() {
+        String weatherSortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        Map<String, String> queries = new LinkedHashMap<>();
+
+        queries.put("weather/*", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingSelection,
+                null, null, weatherSortOrder, null));
+        queries.put("weather/*?date=", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingWithStartDateSelection,
+                null, null, weatherSortOrder, null));
+        queries.put("weather/*?after_date=&limit=", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAfterDateSelection,
+                null, null, weatherSortOrder, "10"));
+        queries.put("weather/multi", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.buildLocationSettingsAndDatesSelection(3),
+                null, null, WeatherProvider.sLocationSettingAndDateSortOrder, null));
+        queries.put("weather/*/#", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection,
+                null, null, weatherSortOrder, null));
+        queries.put("getDayWeather", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherProvider.sDayWeatherColumns, WeatherProvider.sLocationSettingWithStartDateSelection,
+                null, null, weatherSortOrder, "1"));
+        queries.put("getDayWeather exact", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherProvider.sDayWeatherColumns, WeatherProvider.sLocationSettingAndDaySelection,
+                null, null, weatherSortOrder, "1"));
+        queries.put("getPackedForecast", WeatherProvider.sPackedForecastByLocationSettingQueryBuilder.buildQuery(
+                new String[]{LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+                        PackedForecastEntry.COLUMN_FORECAST},
+                WeatherProvider.sLocationSettingSelection, null, null, null, null));
+        queries.put("repackForecast", WeatherProvider.sWeatherQueryBuilder.buildQuery(
+                PackedForecast.PACK_COLUMNS, WeatherProvider.sLocationIdSelection,
+                null, null, weatherSortOrder, null));
+        // The days deleted by the sync, which the provider reads to notify them
+        queries.put("weather before date", SQLiteQueryBuilder.buildQueryString(true,
+                WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_DATE + " <= ?", null, null, null, null));
+
+        // The sync looks its location up by setting
+        queries.put("location by setting", SQLiteQueryBuilder.buildQueryString(false,
+                LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null));
+        queries.put("location by ids", SQLiteQueryBuilder.buildQueryString(false,
+                LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " IN (1,2,3)", null, null, null, null));
+        queries.put("location/near", SQLiteQueryBuilder.buildQueryString(false,
+                LocationEntry.TABLE_NAME, WeatherProvider.sLocationNearColumns,
+                WeatherProvider.buildGeohashSelection(4), null, null, null, null));
+
+        queries.put("history/*", WeatherProvider.sHistoryByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sHistoryLocationSettingWithStartDateSelection,
+                null, null, HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_DATE + " ASC", null));
+        queries.put("history/*?after_date=&limit=", WeatherProvider.sHistoryByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sHistoryLocationSettingAfterDateSelection,
+                null, null, HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_DATE + " ASC", "10"));
+        queries.put("trend/*/*", WeatherProvider.sTrendByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sTrendLocationSettingAndPeriodSelection,
+                null, null, TrendEntry.COLUMN_PERIOD_START + " ASC", null));
+        queries.put("refresh trend", WeatherProvider.sRefreshTrendSql);
+        return queries;
+    }
+
+    /*
+        Returns why a plan is a regression, or null if it only uses indexes.  Virtual tables are
+        scanned through their own index, which for the full-text search is the MATCH.
+     */
+    private static String checkPlan(String plan, boolean allowTempBTree) {
+        for (String step : plan.split("\n")) {
+            if (step.startsWith("SCAN ") && !step.contains("VIRTUAL TABLE")) {
+                return "full scan: " + step;
+            }
+            if (step.contains("AUTOMATIC")) {
+                return "automatic index: " + step;
+            }
+            if (!allowTempBTree && step.contains("TEMP B-TREE")) {
+                return "temp B-tree: " + step;
+            }
+        }
+        return null;
+    }
+
+    private void assertPlansUseIndexes(String state) {
+        StringBuilder failures = new StringBuilder();
+        for (Map.Entry<String, String> query : getHotQueries().entrySet()) {
+            String plan = ProviderStats.explainQueryPlan(mDb, query.getValue());
+            String failure = checkPlan(plan, false);
+            if (failure != null) {
+                failures.append('\n').append(query.getKey()).append(": ").append(failure);
+            }
+        }
+
+        // Grouping and sorting the matches can't come from the full-text index, but there are
+        // only as many of them as there are cities starting with what the user typed
+        String searchPlan = ProviderStats.explainQueryPlan(mDb, WeatherProvider.sLocationSearchSql);
+        String searchFailure = checkPlan(searchPlan, true);
+        if (searchFailure != null) {
+            failures.append("\nlocation/search: ").append(searchFailure);
+        }
+
+        assertTrue("Error: hot queries not using an index " + state + ":" + failures,
+                failures.length() == 0);
+    }
+
+    public void testHotQueriesUseIndexes() {
+        // Right after the install or an upgrade, the planner has no statistics
+        assertPlansUseIndexes("without statistics");
+
+        // What compact() leaves behind after the daily maintenance
+        mDb.execSQL("ANALYZE");
+        assertPlansUseIndexes("with statistics");
+    }
+}
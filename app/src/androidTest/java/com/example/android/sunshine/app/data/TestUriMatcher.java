@@ -27,15 +27,22 @@ import android.test.AndroidTestCase;
  */
 public class TestUriMatcher extends AndroidTestCase {
     private static final String LOCATION_QUERY = "London, UK";
-    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final int TEST_DATE = 2457012;  // December 20th, 2014, as a Julian day
     private static final long TEST_LOCATION_ID = 10L;
 
     // content://com.example.android.sunshine.app/weather"
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_MULTI_DIR = WeatherContract.WeatherEntry.buildWeatherMultiUri(new String[]{LOCATION_QUERY, "94043"}, TEST_DATE, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationEntry.buildLocationSearchUri("Lon");
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationNearUri(51.5, -0.1, 10);
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    private static final Uri TEST_TREND_WITH_LOCATION_AND_PERIOD_DIR = WeatherContract.TrendEntry.buildTrendLocation(LOCATION_QUERY, WeatherContract.TrendEntry.PERIOD_WEEK);
+    private static final Uri TEST_DIAGNOSTICS_LATENCY_DIR = WeatherContract.DiagnosticsEntry.buildLatencyUri();
+    private static final Uri TEST_DIAGNOSTICS_SLOW_OPERATIONS_DIR = WeatherContract.DiagnosticsEntry.buildSlowOperationsUri();
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +58,21 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER MULTI URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_MULTI_DIR), WeatherProvider.WEATHER_MULTI);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The TREND WITH LOCATION AND PERIOD URI was matched incorrectly.",
+                testMatcher.match(TEST_TREND_WITH_LOCATION_AND_PERIOD_DIR), WeatherProvider.TREND_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The DIAGNOSTICS LATENCY URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_LATENCY_DIR), WeatherProvider.DIAGNOSTICS_LATENCY);
+        assertEquals("Error: The DIAGNOSTICS SLOW OPERATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_SLOW_OPERATIONS_DIR), WeatherProvider.DIAGNOSTICS_SLOW_OPERATIONS);
     }
 }
@@ -23,12 +23,15 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.utils.PollingCheck;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Students: These are functions and some test data to make it easier to test your database and
@@ -37,7 +40,7 @@ import java.util.Set;
  */
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
-    static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final int TEST_DATE = 2457012;  // December 20th, 2014, as a Julian day
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -121,7 +124,10 @@ public class TestUtilities extends AndroidTestCase {
      */
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
-        boolean mContentChanged;
+        // Written on mHT, read by the test
+        volatile boolean mContentChanged;
+        final AtomicInteger mChangeCount = new AtomicInteger();
+        private volatile long mLastChangeTime;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -132,6 +138,7 @@ public class TestUtilities extends AndroidTestCase {
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
             mHT = ht;
+            mLastChangeTime = SystemClock.uptimeMillis();
         }
 
         // On earlier versions of Android, this onChange method is called
@@ -142,6 +149,8 @@ public class TestUtilities extends AndroidTestCase {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            mLastChangeTime = SystemClock.uptimeMillis();
+            mChangeCount.incrementAndGet();
             mContentChanged = true;
         }
 
@@ -158,9 +167,61 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        /*
+            Waits until at least count notifications were received, and then until no more have
+            come for quietMillis.  Unlike waitForNotificationOrFail, it keeps counting.
+         */
+        public void waitForChangeCount(final int count, final long quietMillis) {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mChangeCount.get() >= count;
+                }
+            }.run();
+            waitForQuiet(quietMillis);
+        }
+
+        /*
+            Waits until no notification has come for quietMillis.
+         */
+        public void waitForQuiet(final long quietMillis) {
+            new PollingCheck(5000 + quietMillis) {
+                @Override
+                protected boolean check() {
+                    return SystemClock.uptimeMillis() - mLastChangeTime >= quietMillis;
+                }
+            }.run();
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        How long the provider has to stay silent before no notification can be pending: it sends
+        them at most once per interval.
+     */
+    static long getNotificationQuietMillis(Context context) {
+        return 2 * context.getResources().getInteger(
+                R.integer.provider_notification_interval_millis);
+    }
+
+    /*
+        The notifications of earlier writes can still be on their way.  Wait them out, by
+        watching the whole provider until it goes quiet, before registering observers that must
+        not hear about those writes.
+     */
+    static void waitForPendingNotifications(Context context) {
+        TestContentObserver observer = getTestContentObserver();
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+        try {
+            observer.waitForQuiet(getNotificationQuietMillis(context));
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+    }
 }
@@ -17,6 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -26,7 +29,7 @@ public class TestWeatherContract extends AndroidTestCase {
 
     // intentionally includes a slash to make sure Uri is getting quoted correctly
     private static final String TEST_WEATHER_LOCATION = "/North Pole";
-    private static final long TEST_WEATHER_DATE = 1419033600L;  // December 20th, 2014
+    private static final int TEST_WEATHER_DATE = 2457012;  // December 20th, 2014, a Saturday
 
     /*
         Students: Uncomment this out to test your weather location function.
@@ -42,4 +45,40 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testJulianDays() {
+        long noon = WeatherContract.getMillisFromJulianDay(TEST_WEATHER_DATE)
+                + 12 * 60 * 60 * 1000;
+        assertEquals("Error: the start of a day should convert back to the same day",
+                TEST_WEATHER_DATE, WeatherContract.getJulianDay(
+                        WeatherContract.getMillisFromJulianDay(TEST_WEATHER_DATE)));
+        assertEquals("Error: noon should fall in the same day as midnight",
+                TEST_WEATHER_DATE, WeatherContract.getJulianDay(noon));
+        assertEquals("Error: Julian day doesn't match android.text.format.Time",
+                Time.getJulianDay(noon, TimeZone.getDefault().getOffset(noon) / 1000),
+                WeatherContract.getJulianDay(noon));
+    }
+
+    public void testPeriodStarts() {
+        // Sunday December 14th and Sunday December 21st
+        assertEquals("Error: wrong start of week",
+                TEST_WEATHER_DATE - 6, WeatherContract.TrendEntry.getPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_WEEK, TEST_WEATHER_DATE));
+        assertEquals("Error: wrong start of next week",
+                TEST_WEATHER_DATE + 1, WeatherContract.TrendEntry.getNextPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_WEEK, TEST_WEATHER_DATE));
+        // December 1st 2014 and January 1st 2015
+        assertEquals("Error: wrong start of month",
+                TEST_WEATHER_DATE - 19, WeatherContract.TrendEntry.getPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_MONTH, TEST_WEATHER_DATE));
+        assertEquals("Error: wrong start of next month",
+                TEST_WEATHER_DATE + 12, WeatherContract.TrendEntry.getNextPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_MONTH, TEST_WEATHER_DATE));
+        // February 14th 2016, in a leap year
+        assertEquals("Error: wrong length of February 2016",
+                29, WeatherContract.TrendEntry.getNextPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_MONTH, 2457433)
+                        - WeatherContract.TrendEntry.getPeriodStart(
+                        WeatherContract.TrendEntry.PERIOD_MONTH, 2457433));
+    }
 }
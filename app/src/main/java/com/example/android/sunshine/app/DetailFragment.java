@@ -61,7 +61,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private static final String[] DETAIL_COLUMNS = {
             WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
             WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
+            // The description shown is the localized one of the weather id
             WeatherEntry.COLUMN_MAX_TEMP,
             WeatherEntry.COLUMN_MIN_TEMP,
             WeatherEntry.COLUMN_HUMIDITY,
@@ -78,14 +78,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     // must change.
     public static final int COL_WEATHER_ID = 0;
     public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
+    public static final int COL_WEATHER_MAX_TEMP = 2;
+    public static final int COL_WEATHER_MIN_TEMP = 3;
+    public static final int COL_WEATHER_HUMIDITY = 4;
+    public static final int COL_WEATHER_PRESSURE = 5;
+    public static final int COL_WEATHER_WIND_SPEED = 6;
+    public static final int COL_WEATHER_DEGREES = 7;
+    public static final int COL_WEATHER_CONDITION_ID = 8;
 
     private ImageView mIconView;
     private TextView mDateView;
@@ -161,7 +160,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         // replace the uri, since the location has changed
         Uri uri = mUri;
         if (null != uri) {
-            long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+            int date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
             getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
@@ -212,7 +211,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             }
 
             // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
+            long date = WeatherContract.getMillisFromJulianDay(data.getInt(COL_WEATHER_DATE));
             String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
             mDateView.setText(dateText);
 
@@ -16,10 +16,11 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -30,11 +31,13 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * {@link ForecastAdapter} exposes a list of weather forecasts, as the {@link ForecastRow}s
+ * built by a {@link ForecastLoader}, to a {@link android.support.v7.widget.RecyclerView}.
+ *
+ * New rows are compared with the ones shown on a background thread, so a sync only rebinds the
+ * rows that changed.  Rows are identified by their date.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,7 +47,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private static final ForecastRow[] NO_ROWS = new ForecastRow[0];
+
+    private ForecastRow[] mRows = NO_ROWS;
+
+    // The comparison of the days shown with the latest ones, if it is still running
+    private AsyncTask<Void, Void, DiffUtil.DiffResult> mPendingDiff;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,15 +81,52 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            mClickHandler.onClick(mRows[adapterPosition].date, this);
             mICM.onClick(this);
         }
     }
 
+    private static final class ForecastDiffCallback extends DiffUtil.Callback {
+        private final ForecastRow[] mOldRows;
+        private final ForecastRow[] mNewRows;
+        private final boolean mUseTodayLayout;
+
+        ForecastDiffCallback(ForecastRow[] oldRows, ForecastRow[] newRows, boolean useTodayLayout) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+            mUseTodayLayout = useTodayLayout;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows[oldItemPosition].date == mNewRows[newItemPosition].date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            // A day moving in or out of the first row also changes its layout
+            if (mUseTodayLayout && (oldItemPosition == 0) != (newItemPosition == 0)) {
+                return false;
+            }
+            return mOldRows[oldItemPosition].looksLike(mNewRows[newItemPosition]);
+        }
+    }
+
     public static interface ForecastAdapterOnClickHandler {
-        void onClick(Long date, ForecastAdapterViewHolder vh);
+        void onClick(int date, ForecastAdapterViewHolder vh);
     }
 
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
@@ -90,6 +135,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        setHasStableIds(true);
     }
 
     /*
@@ -124,63 +170,41 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything was formatted by the loader, off the main thread
+        ForecastRow row = mRows[position];
+        boolean today = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = today ? row.artResource : row.iconResource;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.artUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        // the animator can use this to re-find the original view.  Named after the date rather
+        // than the position, as rows keep their views when they move.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + row.date);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(
+                today && row.longDateText != null ? row.longDateText : row.dateText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,18 +232,76 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.length;
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
-        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    @Override
+    public long getItemId(int position) {
+        return mRows[position].date;
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /**
+     * Shows new rows, or none if null.
+     */
+    public void swapRows(ForecastRow[] rows) {
+        final ForecastRow[] newRows = rows == null ? NO_ROWS : rows;
+
+        if (mPendingDiff != null) {
+            mPendingDiff.cancel(false);
+            mPendingDiff = null;
+        }
+        if (mRows.length == 0 || newRows.length == 0) {
+            // Nothing to animate, and the empty view has to follow right away
+            setRows(newRows);
+            notifyDataSetChanged();
+            return;
+        }
+
+        final ForecastRow[] oldRows = mRows;
+        final boolean useTodayLayout = mUseTodayLayout;
+        mPendingDiff = new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... params) {
+                // Dates only go up, so there are no moves to look for
+                return DiffUtil.calculateDiff(
+                        new ForecastDiffCallback(oldRows, newRows, useTodayLayout), false);
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult result) {
+                if (mPendingDiff != this) {
+                    return;
+                }
+                mPendingDiff = null;
+                setRows(newRows);
+                result.dispatchUpdatesTo(ForecastAdapter.this);
+            }
+        }.execute();
+    }
+
+    private void setRows(ForecastRow[] rows) {
+        mRows = rows;
+        mEmptyView.setVisibility(rows.length == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Returns the position of a day in the list, or RecyclerView.NO_POSITION if it isn't there.
+     */
+    public int getPositionForDate(int date) {
+        for (int i = 0; i < mRows.length; i++) {
+            if (mRows[i].date == date) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Returns the latitude and longitude of the location shown, as "lat,long", or null if
+     * nothing is shown.
+     */
+    public String getCoordinates() {
+        return mRows.length == 0 ? null : mRows[0].coordinates;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -18,17 +18,13 @@ package com.example.android.sunshine.app;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -51,14 +47,17 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastLoader.Forecast>, SettingsSnapshot.Listener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
     private boolean mUseTodayLayout, mAutoSelectView;
     private int mChoiceMode;
     private boolean mHoldForTransition;
-    private long mInitialSelectedDate = -1;
+    private int mInitialSelectedDate = -1;
+    // The location shown while the preferred one has no forecast, and whether to look for one
+    private String mNearbyLocation;
+    private boolean mFindNearbyLocation = true;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -74,7 +73,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             // So the convenience is worth it.
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
             WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            // No description: the list shows the localized one of the weather id, and leaving
+            // it out spares the provider a join and keeps the rows small.
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
@@ -87,13 +87,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     // must change.
     static final int COL_WEATHER_ID = 0;
     static final int COL_WEATHER_DATE = 1;
-    static final int COL_WEATHER_DESC = 2;
-    static final int COL_WEATHER_MAX_TEMP = 3;
-    static final int COL_WEATHER_MIN_TEMP = 4;
-    static final int COL_LOCATION_SETTING = 5;
-    static final int COL_WEATHER_CONDITION_ID = 6;
-    static final int COL_COORD_LAT = 7;
-    static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_MAX_TEMP = 2;
+    static final int COL_WEATHER_MIN_TEMP = 3;
+    static final int COL_LOCATION_SETTING = 4;
+    static final int COL_WEATHER_CONDITION_ID = 5;
+    static final int COL_COORD_LAT = 6;
+    static final int COL_COORD_LONG = 7;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -119,15 +118,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerListener(getActivity(), this);
         super.onResume();
     }
 
     @Override
     public void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterListener(this);
         super.onPause();
     }
 
@@ -187,8 +184,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // use it to populate the RecyclerView it's attached to.
         mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
-            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
-                String locationSetting = Utility.getPreferredLocation(getActivity());
+            public void onClick(int date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                // The rows on screen may be those of the nearby location, and the details have
+                // to come from the same place.  This is also how two-pane mode selects a row.
+                String locationSetting = mNearbyLocation != null
+                        ? mNearbyLocation : Utility.getPreferredLocation(getActivity());
                 ((Callback) getActivity())
                         .onItemSelected(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
                                         locationSetting, date),
@@ -265,6 +265,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
+        mNearbyLocation = null;
+        mFindNearbyLocation = true;
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
@@ -273,12 +275,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
-                Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
+            String coordinates = mForecastAdapter.getCoordinates();
+            if (null != coordinates) {
+                Uri geoLocation = Uri.parse("geo:" + coordinates);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
                 intent.setData(geoLocation);
@@ -302,33 +301,29 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<ForecastLoader.Forecast> onCreateLoader(int i, Bundle bundle) {
         // This is called when a new Loader needs to be created.  This
         // fragment only uses one loader, so we don't care about checking the id.
 
-        // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
-
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+        return new ForecastLoader(getActivity(),
+                Utility.getPreferredLocation(getActivity()),
+                mFindNearbyLocation,
                 FORECAST_COLUMNS,
-                null,
-                null,
                 sortOrder);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ForecastLoader.Forecast> loader, ForecastLoader.Forecast forecast) {
+        // A new location has nothing until its first sync is done, so the loader may have
+        // found the forecast of a place close by to show in the meantime
+        mNearbyLocation = forecast.nearbyLocation;
+        ForecastRow[] rows = forecast.rows;
+        mForecastAdapter.swapRows(rows);
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( rows.length == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,16 +336,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -383,8 +369,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ForecastLoader.Forecast> loader) {
+        mForecastAdapter.swapRows(null);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -394,7 +380,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
-    public void setInitialSelectedDate(long initialSelectedDate) {
+    public void setInitialSelectedDate(int initialSelectedDate) {
         mInitialSelectedDate = initialSelectedDate;
     }
 
@@ -430,8 +416,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    public void onSettingsChanged(SettingsSnapshot settings, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
+            if ( mNearbyLocation != null ) {
+                // The sync of the preferred location is over, one way or the other
+                mNearbyLocation = null;
+                mFindNearbyLocation = false;
+                getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+            }
             updateEmptyView();
         }
     }
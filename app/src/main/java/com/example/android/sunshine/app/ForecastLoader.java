@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads a forecast as {@link ForecastRow}s, doing the query and all of the formatting on the
+ * loader's thread.  Like a CursorLoader it loads again whenever the location's forecast URI is
+ * notified, which includes a change of units or art pack from the settings.
+ *
+ * A location has nothing until its first sync is done, so if asked to, the loader shows the
+ * forecast of a place close by in the meantime.  Looking for one takes two more queries, which
+ * are done here rather than on the main thread too.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastLoader.Forecast> {
+
+    static final class Forecast {
+        final ForecastRow[] rows;
+        // The location the rows are for, if it isn't the one asked for
+        final String nearbyLocation;
+
+        Forecast(ForecastRow[] rows, String nearbyLocation) {
+            this.rows = rows;
+            this.nearbyLocation = nearbyLocation;
+        }
+    }
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String mLocationSetting;
+    private final boolean mFindNearbyLocation;
+    private final String[] mProjection;
+    private final String mSortOrder;
+
+    private Forecast mForecast;
+    private boolean mObserving;
+
+    ForecastLoader(Context context, String locationSetting, boolean findNearbyLocation,
+                   String[] projection, String sortOrder) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mFindNearbyLocation = findNearbyLocation;
+        mProjection = projection;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public Forecast loadInBackground() {
+        Context context = getContext();
+        ForecastRow[] rows = loadRows(context, mLocationSetting);
+        if (rows.length == 0 && mFindNearbyLocation) {
+            String nearbyLocation = Utility.getNearbyLocation(context, mLocationSetting);
+            if (nearbyLocation != null) {
+                return new Forecast(loadRows(context, nearbyLocation), nearbyLocation);
+            }
+        }
+        return new Forecast(rows, null);
+    }
+
+    private ForecastRow[] loadRows(Context context, String locationSetting) {
+        // To only show current and future dates, filter the query to return weather only for
+        // dates after or including today.
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, WeatherContract.getJulianDay(System.currentTimeMillis()));
+        Cursor cursor = context.getContentResolver().query(
+                uri, mProjection, null, null, mSortOrder);
+        if (cursor == null) {
+            return new ForecastRow[0];
+        }
+        try {
+            // Read once for the whole list rather than once per row
+            boolean usingLocalGraphics = Utility.usingLocalGraphics(context);
+            ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                rows[cursor.getPosition()] = new ForecastRow(context, cursor, usingLocalGraphics);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Forecast forecast) {
+        if (isReset()) {
+            return;
+        }
+        mForecast = forecast;
+        if (isStarted()) {
+            super.deliverResult(forecast);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // The provider notifies the days it writes, which are below this URI.  Once the
+            // location has its own forecast, that is what gets loaded.
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(mLocationSetting),
+                    true, mObserver);
+            mObserving = true;
+        }
+        if (mForecast != null) {
+            deliverResult(mForecast);
+        }
+        if (takeContentChanged() || mForecast == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mForecast = null;
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * One day of the forecast list with every text already formatted, so that binding it only
+ * sets views.  Built by {@link ForecastLoader} on its background thread, and never changed
+ * afterwards.
+ */
+final class ForecastRow {
+    final int date;
+    final int weatherId;
+
+    // The art is shown in the today layout, the icon in the others.  The art URL is null when
+    // the local graphics are used.
+    final int artResource;
+    final int iconResource;
+    final String artUrl;
+
+    final String dateText;
+    // The date as shown in the today layout, only set on the first row
+    final String longDateText;
+    final String description;
+    final String descriptionContentDescription;
+    final String highText;
+    final String highContentDescription;
+    final String lowText;
+    final String lowContentDescription;
+
+    // Of the location, as "lat,long"
+    final String coordinates;
+
+    /**
+     * Formats the row the cursor is on.  The cursor is over ForecastFragment.FORECAST_COLUMNS.
+     */
+    ForecastRow(Context context, Cursor cursor, boolean usingLocalGraphics) {
+        date = cursor.getInt(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = usingLocalGraphics
+                ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        long dateInMillis = WeatherContract.getMillisFromJulianDay(date);
+        dateText = Utility.getFriendlyDayString(context, dateInMillis, false);
+        longDateText = cursor.isFirst()
+                ? Utility.getFriendlyDayString(context, dateInMillis, true) : null;
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+
+        highText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highContentDescription = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowContentDescription = context.getString(R.string.a11y_low_temp, lowText);
+
+        coordinates = cursor.getString(ForecastFragment.COL_COORD_LAT) + "," +
+                cursor.getString(ForecastFragment.COL_COORD_LONG);
+    }
+
+    /**
+     * Returns whether the two rows would be shown the same.
+     */
+    boolean looksLike(ForecastRow other) {
+        return weatherId == other.weatherId
+                && TextUtils.equals(artUrl, other.artUrl)
+                && TextUtils.equals(dateText, other.dateText)
+                && TextUtils.equals(longDateText, other.longDateText)
+                && TextUtils.equals(description, other.description)
+                && TextUtils.equals(highText, other.highText)
+                && TextUtils.equals(lowText, other.lowText);
+    }
+}
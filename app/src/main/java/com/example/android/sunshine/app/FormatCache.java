@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+import android.util.LruCache;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The dates and temperatures formatted by {@link Utility}, remembered so that the list, the
+ * widgets, the notifications and the wear updates don't format the same day over and over.
+ *
+ * What a date looks like depends on the locale, the time zone and, for "Today" and "Tomorrow",
+ * on what day it is now; everything is dropped as soon as any of those change.  All methods may
+ * be called from any thread.
+ */
+final class FormatCache {
+
+    // The ways a day can be formatted, see the Utility methods of the same names
+    static final int DAY_NAME = 0;
+    static final int FORMATTED_MONTH_DAY = 1;
+    static final int FRIENDLY_DAY = 2;
+    static final int FRIENDLY_DAY_LONG_TODAY = 3;
+    static final int FULL_FRIENDLY_DAY = 4;
+    private static final int STYLE_BITS = 3;
+
+    // A few weeks of days in every style, and every temperature a forecast is likely to show
+    private static final int MAX_DATES = 256;
+    private static final int MAX_TEMPERATURES = 256;
+
+    private static final FormatCache sInstance = new FormatCache();
+
+    private final LruCache<Long, String> mDates = new LruCache<>(MAX_DATES);
+    private final LruCache<Double, String> mTemperatures = new LruCache<>(MAX_TEMPERATURES);
+
+    // What the cached strings were formatted for, all guarded by this.  The formats aren't
+    // thread safe either, so they are only used while holding the lock.
+    private Locale mLocale;
+    private String mTimeZoneId;
+    private long mTodayStart;
+    private long mTomorrowStart;
+    private long mGmtOffset;
+    private int mCurrentJulianDay;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private SimpleDateFormat mShortenedDateFormat;
+
+    private FormatCache() {
+    }
+
+    static FormatCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns a day formatted in one of the styles above.
+     */
+    String formatDate(Context context, long dateInMillis, int style) {
+        return formatDate(context, dateInMillis, style, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a day formatted as it would be at the time given as now, which lets the tests
+     * cross midnight.
+     */
+    String formatDate(Context context, long dateInMillis, int style, long now) {
+        synchronized (this) {
+            checkValid(now);
+            return getDate(context, dateInMillis, style);
+        }
+    }
+
+    /**
+     * Returns a temperature, already converted to the units shown, formatted for display.
+     */
+    String formatTemperature(Context context, double temperature) {
+        synchronized (this) {
+            checkValid(System.currentTimeMillis());
+            String formatted = mTemperatures.get(temperature);
+            if (formatted == null) {
+                // For presentation, assume the user doesn't care about tenths of a degree.
+                formatted = String.format(context.getString(R.string.format_temperature),
+                        temperature);
+                mTemperatures.put(temperature, formatted);
+            }
+            return formatted;
+        }
+    }
+
+    private String getDate(Context context, long dateInMillis, int style) {
+        int julianDay = Time.getJulianDay(dateInMillis, mGmtOffset);
+        Long key = ((long) julianDay << STYLE_BITS) | style;
+        String formatted = mDates.get(key);
+        if (formatted == null) {
+            formatted = format(context, dateInMillis, julianDay, style);
+            mDates.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    private String format(Context context, long dateInMillis, int julianDay, int style) {
+        switch (style) {
+            case DAY_NAME:
+                if (julianDay == mCurrentJulianDay) {
+                    return context.getString(R.string.today);
+                } else if ( julianDay == mCurrentJulianDay +1 ) {
+                    return context.getString(R.string.tomorrow);
+                } else {
+                    // Otherwise, the format is just the day of the week (e.g "Wednesday").
+                    return mDayNameFormat.format(dateInMillis);
+                }
+            case FORMATTED_MONTH_DAY:
+                return mMonthDayFormat.format(dateInMillis);
+            case FRIENDLY_DAY:
+            case FRIENDLY_DAY_LONG_TODAY:
+                // The day string for forecast uses the following logic:
+                // For today: "Today, June 8"
+                // For tomorrow:  "Tomorrow"
+                // For the next 5 days: "Wednesday" (just the day name)
+                // For all days after that: "Mon Jun 8"
+                if (style == FRIENDLY_DAY_LONG_TODAY && julianDay == mCurrentJulianDay) {
+                    return context.getString(R.string.format_full_friendly_date,
+                            context.getString(R.string.today),
+                            getDate(context, dateInMillis, FORMATTED_MONTH_DAY));
+                } else if ( julianDay < mCurrentJulianDay + 7 ) {
+                    // If the input date is less than a week in the future, just return the day name.
+                    return getDate(context, dateInMillis, DAY_NAME);
+                } else {
+                    // Otherwise, use the form "Mon Jun 3"
+                    return mShortenedDateFormat.format(dateInMillis);
+                }
+            case FULL_FRIENDLY_DAY:
+                return context.getString(R.string.format_full_friendly_date,
+                        getDate(context, dateInMillis, DAY_NAME),
+                        getDate(context, dateInMillis, FORMATTED_MONTH_DAY));
+            default:
+                throw new IllegalArgumentException("Unknown date style: " + style);
+        }
+    }
+
+    /* Drops everything formatted for another locale, time zone or day. */
+    private void checkValid(long now) {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        if (locale.equals(mLocale) && timeZone.getID().equals(mTimeZoneId)
+                && now >= mTodayStart && now < mTomorrowStart) {
+            return;
+        }
+
+        mDates.evictAll();
+        mTemperatures.evictAll();
+
+        mLocale = locale;
+        mTimeZoneId = timeZone.getID();
+        Calendar calendar = Calendar.getInstance(timeZone, locale);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mTodayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        mTomorrowStart = calendar.getTimeInMillis();
+        // Days are numbered with the offset from UTC in effect now, for today as for the others
+        mGmtOffset = timeZone.getOffset(now) / 1000;
+        mCurrentJulianDay = Time.getJulianDay(now, mGmtOffset);
+
+        mDayNameFormat = new SimpleDateFormat("EEEE", locale);
+        mMonthDayFormat = new SimpleDateFormat("MMMM dd", locale);
+        mShortenedDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+    }
+}
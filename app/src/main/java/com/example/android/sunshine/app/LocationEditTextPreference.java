@@ -17,19 +17,31 @@ package com.example.android.sunshine.app;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
+import android.widget.ListPopupWindow;
+import android.widget.SimpleCursorAdapter;
+
+import com.example.android.sunshine.app.data.WeatherContract;
 
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
+    private ListPopupWindow mSuggestions;
+    private SimpleCursorAdapter mSuggestionsAdapter;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -49,7 +61,46 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+
+        // Places matching what was typed so far, from the local search index, so typos can be
+        // spotted before they cost a sync.  The adapter's filter runs the search on its own thread.
+        mSuggestionsAdapter = new SimpleCursorAdapter(getContext(),
+                android.R.layout.simple_list_item_2,
+                null,
+                new String[]{WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION,
+                        WeatherContract.LocationSearchEntry.COLUMN_CITY_NAME},
+                new int[]{android.R.id.text1, android.R.id.text2},
+                0);
+        final ContentResolver resolver = getContext().getContentResolver();
+        mSuggestionsAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null || constraint.length() < mMinLength) {
+                    return null;
+                }
+                return resolver.query(
+                        WeatherContract.LocationEntry.buildLocationSearchUri(constraint.toString()),
+                        null, null, null, null);
+            }
+        });
+        mSuggestions = new ListPopupWindow(getContext());
+        mSuggestions.setAnchorView(et);
+        mSuggestions.setAdapter(mSuggestionsAdapter);
+        mSuggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Cursor cursor = mSuggestionsAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    String suggestion = cursor.getString(cursor.getColumnIndex(
+                            WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION));
+                    et.setText(suggestion);
+                    et.setSelection(suggestion.length());
+                }
+                mSuggestions.dismiss();
+            }
+        });
+
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -65,20 +116,90 @@ public class LocationEditTextPreference extends EditTextPreference {
 
             @Override
             public void afterTextChanged(Editable s) {
-                Dialog d = getDialog();
-                if (d instanceof AlertDialog) {
-                    AlertDialog dialog = (AlertDialog) d;
-                    Button positiveButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
-                    // Check if the EditText is empty
-                    if (s.length() < mMinLength) {
-                        // Disable OK button
-                        positiveButton.setEnabled(false);
-                    } else {
-                        // Re-enable the button.
-                        positiveButton.setEnabled(true);
-                    }
+                updateSuggestions(s.toString());
+            }
+        });
+    }
+
+    private void setPositiveButtonEnabled(boolean enabled) {
+        Dialog d = getDialog();
+        if (d instanceof AlertDialog) {
+            AlertDialog dialog = (AlertDialog) d;
+            Button positiveButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
+            positiveButton.setEnabled(enabled);
+        }
+    }
+
+    private void updateSuggestions(final String query) {
+        if (mSuggestions == null) {
+            return;
+        }
+        final EditText et = getEditText();
+        et.setError(null);
+        // Check if the EditText is empty
+        setPositiveButtonEnabled(query.length() >= mMinLength);
+        mSuggestionsAdapter.getFilter().filter(query, new Filter.FilterListener() {
+            @Override
+            public void onFilterComplete(int count) {
+                if (mSuggestions == null || !query.equals(et.getText().toString())) {
+                    // The dialog is gone, or this is the result for an older text
+                    return;
+                }
+                if (count == 0) {
+                    mSuggestions.dismiss();
+                } else if (!mSuggestions.isShowing()) {
+                    mSuggestions.show();
+                }
+                // The index only has the bundled cities and the places synced before, while
+                // OpenWeatherMap knows many more, so a name missing from it is only flagged as a
+                // possible typo and can still be saved.  Postal codes can't all be in the index.
+                if (query.length() >= mMinLength && !isPostalCode(query)
+                        && !isSuggested(mSuggestionsAdapter.getCursor(), query)) {
+                    et.setError(getContext().getString(R.string.pref_location_not_found));
                 }
             }
         });
     }
+
+    private static boolean isPostalCode(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            if (Character.isDigit(query.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns whether the text is one of the suggestions, or the name of one of them. */
+    private static boolean isSuggested(Cursor cursor, String query) {
+        if (cursor == null) {
+            return false;
+        }
+        String trimmed = query.trim();
+        int suggestionColumn = cursor.getColumnIndex(
+                WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION);
+        int cityNameColumn = cursor.getColumnIndex(
+                WeatherContract.LocationSearchEntry.COLUMN_CITY_NAME);
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            if (trimmed.equalsIgnoreCase(cursor.getString(suggestionColumn))
+                    || trimmed.equalsIgnoreCase(cursor.getString(cityNameColumn))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        super.onDialogClosed(positiveResult);
+        if (mSuggestions != null) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+        }
+        if (mSuggestionsAdapter != null) {
+            // Closes the last cursor
+            mSuggestionsAdapter.changeCursor(null);
+            mSuggestionsAdapter = null;
+        }
+    }
 }
@@ -4,13 +4,12 @@ import android.app.IntentService;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -34,12 +33,6 @@ public class MyWatchService extends IntentService implements GoogleApiClient.Con
     private static final String LOG_TAG = MyWatchService.class.getSimpleName();
     private GoogleApiClient mGoogleApiClient;
 
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
-    };
-
 
     public MyWatchService() {
         super("MyWatchService");
@@ -92,13 +85,18 @@ public class MyWatchService extends IntentService implements GoogleApiClient.Con
 
 
 
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = context.getContentResolver().query(weatherUri, FORECAST_COLUMNS, null, null, null);
+        int today = WeatherContract.getJulianDay(System.currentTimeMillis());
+        Bundle weather = ForecastSnapshot.getDayWeather(context, locationQuery, today, true);
+        if (weather == null) {
+            weather = context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_GET_DAY_WEATHER, locationQuery,
+                    WeatherContract.WeatherEntry.buildDayWeatherExtras(today, true));
+        }
 
-        if (cursor.moveToFirst()) {
-            double tempMax = cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
-            double tempMin = cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
-            int weatherID = cursor.getInt(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        if (weather != null) {
+            double tempMax = weather.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            double tempMin = weather.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            int weatherID = weather.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
 
             String strTempMax = Utility.formatTemperature(getBaseContext(), tempMax);
             String strTempMin = Utility.formatTemperature(getBaseContext(), tempMin);
@@ -124,7 +122,6 @@ public class MyWatchService extends IntentService implements GoogleApiClient.Con
                     }
             );
         }
-        cursor.close();
     }
 
     @Override
@@ -17,7 +17,6 @@ package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -37,7 +36,7 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
  * API Guide</a> for more information on developing a Settings UI.
  */
 public class SettingsActivity extends PreferenceActivity
-        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, SettingsSnapshot.Listener {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -52,19 +51,17 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
     }
 
-    // Registers a shared preference change listener that gets notified when preferences change
+    // Registers a settings listener that gets notified when preferences change
     @Override
     protected void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerListener(this, this);
         super.onResume();
     }
 
-    // Unregisters a shared preference change listener
+    // Unregisters the settings listener
     @Override
     protected void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterListener(this);
         super.onPause();
     }
 
@@ -130,22 +127,25 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called after the preference is changed, which is important because we
     // start our synchronization here
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    public void onSettingsChanged(SettingsSnapshot settings, String key) {
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. update lists of weather entries accordingly.  Only the
+            // preferred location is on screen, so there's no need to wake up the others.
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                    settings.locationSetting), null);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                    settings.locationSetting), null);
         }
     }
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The settings that are read while showing the weather, copied out of the shared preferences.
+ * A snapshot never changes; a new one is built whenever a preference does, and reading the
+ * current one takes no lock.
+ *
+ * Listeners registered here are told about a change only once the new snapshot is in place, so
+ * unlike listeners of the shared preferences themselves they can't read a stale setting.  The
+ * preferences tell us about changes on the main thread, so a background thread that has just
+ * written a preference sees the old value here until the main thread has caught up.
+ */
+final class SettingsSnapshot {
+
+    interface Listener {
+        /**
+         * Called on the main thread after the preference with the given key has changed.
+         */
+        void onSettingsChanged(SettingsSnapshot settings, String key);
+    }
+
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sCurrent;
+    private static final CopyOnWriteArrayList<Listener> sListeners = new CopyOnWriteArrayList<>();
+
+    // The shared preferences only keep weak references to their listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener;
+
+    final String locationSetting;
+    final boolean metric;
+    // The art URL format, or the local graphics pack
+    final String artPack;
+    final boolean localGraphics;
+    @SunshineSyncAdapter.LocationStatus final int locationStatus;
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        locationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * Returns the current settings.
+     */
+    static SettingsSnapshot get(Context context) {
+        SettingsSnapshot settings = sCurrent;
+        if (settings != null) {
+            return settings;
+        }
+        synchronized (sLock) {
+            if (sCurrent == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sPreferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        SettingsSnapshot settings = new SettingsSnapshot(appContext, prefs);
+                        sCurrent = settings;
+                        for (Listener listener : sListeners) {
+                            listener.onSettingsChanged(settings, key);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sPreferenceListener);
+                sCurrent = new SettingsSnapshot(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    static void registerListener(Context context, Listener listener) {
+        // Makes sure the preferences are being watched
+        get(context);
+        sListeners.addIfAbsent(listener);
+    }
+
+    static void unregisterListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+}
@@ -15,44 +15,190 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.common.WeatherConditions;
 
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
 
 public class Utility {
+    // How far a location can be to stand in for another one that has no forecast yet
+    private static final double NEARBY_LOCATION_RADIUS_KM = 50;
+
+    // Graphics of each kind of weather, indexed by WeatherConditions kind
+    private static final int[] ICON_RESOURCES = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_storm,
+    };
+    private static final int[] ART_RESOURCES = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds,
+            R.drawable.art_storm,
+    };
+
+    // Descriptions of the conditions, indexed by weather id, 0 where there is none
+    private static final int[] CONDITION_STRINGS = new int[WeatherConditions.MAX_WEATHER_ID + 1];
+
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        Arrays.fill(CONDITION_STRINGS, 200, 233, R.string.condition_2xx);
+        Arrays.fill(CONDITION_STRINGS, 300, 322, R.string.condition_3xx);
+        CONDITION_STRINGS[500] = R.string.condition_500;
+        CONDITION_STRINGS[501] = R.string.condition_501;
+        CONDITION_STRINGS[502] = R.string.condition_502;
+        CONDITION_STRINGS[503] = R.string.condition_503;
+        CONDITION_STRINGS[504] = R.string.condition_504;
+        CONDITION_STRINGS[511] = R.string.condition_511;
+        CONDITION_STRINGS[520] = R.string.condition_520;
+        CONDITION_STRINGS[531] = R.string.condition_531;
+        CONDITION_STRINGS[600] = R.string.condition_600;
+        CONDITION_STRINGS[601] = R.string.condition_601;
+        CONDITION_STRINGS[602] = R.string.condition_602;
+        CONDITION_STRINGS[611] = R.string.condition_611;
+        CONDITION_STRINGS[612] = R.string.condition_612;
+        CONDITION_STRINGS[615] = R.string.condition_615;
+        CONDITION_STRINGS[616] = R.string.condition_616;
+        CONDITION_STRINGS[620] = R.string.condition_620;
+        CONDITION_STRINGS[621] = R.string.condition_621;
+        CONDITION_STRINGS[622] = R.string.condition_622;
+        CONDITION_STRINGS[701] = R.string.condition_701;
+        CONDITION_STRINGS[711] = R.string.condition_711;
+        CONDITION_STRINGS[721] = R.string.condition_721;
+        CONDITION_STRINGS[731] = R.string.condition_731;
+        CONDITION_STRINGS[741] = R.string.condition_741;
+        CONDITION_STRINGS[751] = R.string.condition_751;
+        CONDITION_STRINGS[761] = R.string.condition_761;
+        CONDITION_STRINGS[762] = R.string.condition_762;
+        CONDITION_STRINGS[771] = R.string.condition_771;
+        CONDITION_STRINGS[781] = R.string.condition_781;
+        CONDITION_STRINGS[800] = R.string.condition_800;
+        CONDITION_STRINGS[801] = R.string.condition_801;
+        CONDITION_STRINGS[802] = R.string.condition_802;
+        CONDITION_STRINGS[803] = R.string.condition_803;
+        CONDITION_STRINGS[804] = R.string.condition_804;
+        CONDITION_STRINGS[900] = R.string.condition_900;
+        CONDITION_STRINGS[901] = R.string.condition_901;
+        CONDITION_STRINGS[902] = R.string.condition_902;
+        CONDITION_STRINGS[903] = R.string.condition_903;
+        CONDITION_STRINGS[904] = R.string.condition_904;
+        CONDITION_STRINGS[905] = R.string.condition_905;
+        CONDITION_STRINGS[906] = R.string.condition_906;
+        CONDITION_STRINGS[951] = R.string.condition_951;
+        CONDITION_STRINGS[952] = R.string.condition_952;
+        CONDITION_STRINGS[953] = R.string.condition_953;
+        CONDITION_STRINGS[954] = R.string.condition_954;
+        CONDITION_STRINGS[955] = R.string.condition_955;
+        CONDITION_STRINGS[956] = R.string.condition_956;
+        CONDITION_STRINGS[957] = R.string.condition_957;
+        CONDITION_STRINGS[958] = R.string.condition_958;
+        CONDITION_STRINGS[959] = R.string.condition_959;
+        CONDITION_STRINGS[960] = R.string.condition_960;
+        CONDITION_STRINGS[961] = R.string.condition_961;
+        CONDITION_STRINGS[962] = R.string.condition_962;
+    }
+
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return SettingsSnapshot.get(context).locationSetting;
+    }
+
+    /**
+     * Finds a location we already have close to a location setting, whose forecast can be shown
+     * while the setting syncs for the first time.  The setting has to be one of the places in
+     * the location search, so we know where it is.
+     *
+     * @return the setting of the nearest such location, or null if there is none
+     */
+    public static String getNearbyLocation(Context context, String locationSetting) {
+        ContentResolver resolver = context.getContentResolver();
+        Cursor cursor = resolver.query(
+                WeatherContract.LocationEntry.buildLocationSearchUri(locationSetting),
+                null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        double lat = 0;
+        double lon = 0;
+        boolean found = false;
+        try {
+            int suggestionColumn = cursor.getColumnIndex(
+                    WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION);
+            int latColumn = cursor.getColumnIndex(
+                    WeatherContract.LocationSearchEntry.COLUMN_COORD_LAT);
+            int lonColumn = cursor.getColumnIndex(
+                    WeatherContract.LocationSearchEntry.COLUMN_COORD_LONG);
+            while (!found && cursor.moveToNext()) {
+                if (locationSetting.equalsIgnoreCase(cursor.getString(suggestionColumn))
+                        && !cursor.isNull(latColumn)) {
+                    lat = cursor.getDouble(latColumn);
+                    lon = cursor.getDouble(lonColumn);
+                    found = true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!found) {
+            return null;
+        }
+
+        cursor = resolver.query(WeatherContract.LocationEntry.buildLocationNearUri(
+                lat, lon, NEARBY_LOCATION_RADIUS_KM), null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            int settingColumn = cursor.getColumnIndex(
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+            while (cursor.moveToNext()) {
+                String nearbySetting = cursor.getString(settingColumn);
+                if (!locationSetting.equals(nearbySetting)) {
+                    return nearbySetting;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return null;
     }
 
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric))
-                .equals(context.getString(R.string.pref_units_metric));
+        return SettingsSnapshot.get(context).metric;
     }
 
     public static String formatTemperature(Context context, double temperature) {
         // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
         // the values here.
-        String suffix = "\u00B0";
         if (!isMetric(context)) {
             temperature = (temperature * 1.8) + 32;
         }
-
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+        return FormatCache.getInstance().formatTemperature(context, temperature);
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -78,30 +224,8 @@ public class Utility {
         // For tomorrow:  "Tomorrow"
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
-
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
-
-        // If the date we're building the String for is today's date, the format
-        // is "Today, June 24"
-        if (displayLongToday && julianDay == currentJulianDay) {
-            String today = context.getString(R.string.today);
-            int formatId = R.string.format_full_friendly_date;
-            return String.format(context.getString(
-                    formatId,
-                    today,
-                    getFormattedMonthDay(context, dateInMillis)));
-        } else if ( julianDay < currentJulianDay + 7 ) {
-            // If the input date is less than a week in the future, just return the day name.
-            return getDayName(context, dateInMillis);
-        } else {
-            // Otherwise, use the form "Mon Jun 3"
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
-        }
+        return FormatCache.getInstance().formatDate(context, dateInMillis, displayLongToday
+                ? FormatCache.FRIENDLY_DAY_LONG_TODAY : FormatCache.FRIENDLY_DAY);
     }
 
     /**
@@ -113,13 +237,8 @@ public class Utility {
      * @return a user-friendly representation of the date.
      */
     public static String getFullFriendlyDayString(Context context, long dateInMillis) {
-
-        String day = getDayName(context, dateInMillis);
-        int formatId = R.string.format_full_friendly_date;
-        return String.format(context.getString(
-                formatId,
-                day,
-                getFormattedMonthDay(context, dateInMillis)));
+        return FormatCache.getInstance().formatDate(context, dateInMillis,
+                FormatCache.FULL_FRIENDLY_DAY);
     }
 
     /**
@@ -133,38 +252,18 @@ public class Utility {
     public static String getDayName(Context context, long dateInMillis) {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
-
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
-        if (julianDay == currentJulianDay) {
-            return context.getString(R.string.today);
-        } else if ( julianDay == currentJulianDay +1 ) {
-            return context.getString(R.string.tomorrow);
-        } else {
-            Time time = new Time();
-            time.setToNow();
-            // Otherwise, the format is just the day of the week (e.g "Wednesday".
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
-        }
+        return FormatCache.getInstance().formatDate(context, dateInMillis, FormatCache.DAY_NAME);
     }
 
     /**
      * Converts db date format to the format "Month day", e.g "June 24".
      * @param context Context to use for resource localization
-     * @param dateInMillis The db formatted date string, expected to be of the form specified
-     *                in Utility.DATE_FORMAT
+     * @param dateInMillis The date in milliseconds
      * @return The day in the form of a string formatted "December 6"
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
-        return monthDayString;
+        return FormatCache.getInstance().formatDate(context, dateInMillis,
+                FormatCache.FORMATTED_MONTH_DAY);
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
@@ -207,32 +306,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return ICON_RESOURCES[WeatherConditions.getKind(weatherId)];
     }
 
     /**
@@ -242,10 +316,7 @@ public class Utility {
      * @return true if Sunshine is using local graphics, false otherwise.
      */
     public static boolean usingLocalGraphics(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
-        return prefs.getString(context.getString(R.string.pref_art_pack_key),
-                sunshineArtPack).equals(sunshineArtPack);
+        return SettingsSnapshot.get(context).localGraphics;
     }
 
     /**
@@ -257,36 +328,12 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
-                context.getString(R.string.pref_art_pack_sunshine));
-
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
+        String artName = WeatherConditions.getArtName(weatherId);
+        if (artName == null) {
+            return null;
         }
-        return null;
+        String formatArtUrl = SettingsSnapshot.get(context).artPack;
+        return String.format(Locale.US, formatArtUrl, artName);
     }
 
     /**
@@ -296,32 +343,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return ART_RESOURCES[WeatherConditions.getKind(weatherId)];
     }
 
     /**
@@ -332,172 +354,10 @@ public class Utility {
      * @return string for the weather condition. null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
+        int stringId = weatherId >= 0 && weatherId <= WeatherConditions.MAX_WEATHER_ID
+                ? CONDITION_STRINGS[weatherId] : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
         }
         return context.getString(stringId);
     }
@@ -510,32 +370,7 @@ public class Utility {
      * @return A string URL to an appropriate image or null if no mapping is found
      */
     public static String getImageUrlForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId == 511) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
-        } else if (weatherId == 761 || weatherId == 781) {
-            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
-        } else if (weatherId == 800) {
-            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
-        } else if (weatherId == 801) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
-        }
-        return null;
+        return WeatherConditions.getImageUrl(weatherId);
     }
 
     /**
@@ -558,11 +393,9 @@ public class Utility {
      * @param c Context used to get the SharedPreferences
      * @return the location status integer type
      */
-    @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SettingsSnapshot.get(c).locationStatus;
     }
 
     /**
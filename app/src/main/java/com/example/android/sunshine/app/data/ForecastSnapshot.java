@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of the packed forecast of the preferred location, kept in a memory-mapped file so the
+ * widgets, Muzei and the watch can read it without opening the database.
+ *
+ * The sync is the only writer.  Readers never block it: the file starts with a sequence number
+ * which is odd while a write is in progress, and a reader that sees it odd or changed while it
+ * copied the payload tries again.  The payload also carries a CRC32, so a file left half
+ * written by a crash is never handed out.  Whenever the snapshot can't answer, callers fall
+ * back to the WeatherProvider.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast.snapshot";
+
+    // Bump this whenever the layout of the file changes
+    private static final int FORMAT_VERSION = 1;
+
+    // Header fields.  The payload is the location setting (short length + UTF-8 bytes)
+    // followed by the PackedForecast blob.
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_LENGTH = 8;
+    private static final int OFFSET_CRC = 12;
+    static final int HEADER_SIZE = 20;
+
+    // Room for a couple of months of forecast, far more than the sync ever fetches
+    private static final int FILE_SIZE = 16 * 1024;
+
+    // A write only copies a few hundred bytes, so a reader should rarely need a second try
+    private static final int MAX_READ_ATTEMPTS = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MappedByteBuffer sBuffer;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Replaces the snapshot with the packed forecast of a location, as returned by
+     * METHOD_GET_PACKED_FORECAST.
+     */
+    public static synchronized void write(Context context, String locationSetting,
+                                          byte[] packedForecast) {
+        ByteBuffer buffer = getBuffer(context, true);
+        if (buffer == null) {
+            return;
+        }
+        byte[] setting = locationSetting.getBytes(UTF_8);
+        int length = 2 + setting.length + packedForecast.length;
+        if (HEADER_SIZE + length > FILE_SIZE) {
+            Log.w(LOG_TAG, "Forecast of " + length + " bytes doesn't fit in the snapshot");
+            length = 0;
+        }
+
+        // Odd while writing
+        int sequence = (buffer.getInt(OFFSET_SEQUENCE) + 1) | 1;
+        buffer.putInt(OFFSET_SEQUENCE, sequence);
+
+        CRC32 crc = new CRC32();
+        if (length != 0) {
+            buffer.position(HEADER_SIZE);
+            buffer.putShort((short) setting.length);
+            buffer.put(setting);
+            buffer.put(packedForecast);
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(HEADER_SIZE);
+            payload.limit(HEADER_SIZE + length);
+            byte[] bytes = new byte[length];
+            payload.get(bytes);
+            crc.update(bytes);
+        }
+        buffer.putInt(OFFSET_VERSION, FORMAT_VERSION);
+        buffer.putInt(OFFSET_LENGTH, length);
+        buffer.putLong(OFFSET_CRC, crc.getValue());
+
+        buffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+    }
+
+    /**
+     * Returns the forecast in the snapshot, or null if there is no valid snapshot for this
+     * location setting.
+     */
+    public static PackedForecast read(Context context, String locationSetting) {
+        ByteBuffer mapped = getBuffer(context, false);
+        if (mapped == null) {
+            return null;
+        }
+        // Our own view, so concurrent readers don't move each other's position
+        ByteBuffer buffer = mapped.duplicate();
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequence = buffer.getInt(OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            int version = buffer.getInt(OFFSET_VERSION);
+            int length = buffer.getInt(OFFSET_LENGTH);
+            long expectedCrc = buffer.getLong(OFFSET_CRC);
+            byte[] payload = null;
+            if (length > 0 && HEADER_SIZE + length <= FILE_SIZE) {
+                payload = new byte[length];
+                buffer.position(HEADER_SIZE);
+                buffer.get(payload);
+            }
+            if (buffer.getInt(OFFSET_SEQUENCE) != sequence) {
+                // The sync wrote while we were copying
+                continue;
+            }
+
+            if (version != FORMAT_VERSION || payload == null) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != expectedCrc) {
+                return null;
+            }
+            ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+            int settingLength = payloadBuffer.getShort();
+            if (!locationSetting.equals(new String(payload, 2, settingLength, UTF_8))) {
+                return null;
+            }
+            byte[] packedForecast = new byte[length - 2 - settingLength];
+            System.arraycopy(payload, 2 + settingLength, packedForecast, 0, packedForecast.length);
+            return PackedForecast.unpack(packedForecast);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the weather of one day from the snapshot, in the same Bundle as
+     * METHOD_GET_DAY_WEATHER, or null if the snapshot doesn't have it.
+     *
+     * @param date the Julian day to look for
+     * @param exactDate if false, the first day after date is returned when date is missing
+     */
+    public static Bundle getDayWeather(Context context, String locationSetting, int date,
+                                       boolean exactDate) {
+        PackedForecast forecast = read(context, locationSetting);
+        if (forecast == null) {
+            return null;
+        }
+        int day = forecast.findFirstDayOnOrAfter(date);
+        if (day == forecast.getCount() || (exactDate && forecast.getDate(day) != date)) {
+            return null;
+        }
+        return forecast.getDayWeather(day);
+    }
+
+    private static synchronized MappedByteBuffer getBuffer(Context context, boolean create) {
+        if (sBuffer != null) {
+            return sBuffer;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!create && !file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(FILE_SIZE);
+                // The mapping stays valid once the file is closed
+                sBuffer = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error mapping the forecast snapshot", e);
+        }
+        return sBuffer;
+    }
+}
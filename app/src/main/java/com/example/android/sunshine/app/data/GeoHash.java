@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Geohashes of the locations, which let an ordinary index answer "what is near here": places
+ * in the same cell share a prefix, so a radius is covered by a few prefix range scans.
+ */
+final class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    // Sorts right after every geohash character, to turn a prefix into a range
+    static final char PREFIX_END = '{';
+
+    // Cells of about 5 meters, far more precise than any radius we are asked for
+    static final int PRECISION = 9;
+
+    private static final double KM_PER_DEGREE = 111.2;
+    private static final double EARTH_RADIUS_KM = 6371;
+
+    private GeoHash() {
+    }
+
+    static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        // Bits alternate between longitude and latitude, starting with longitude
+        boolean longitudeBit = true;
+        int bits = 0;
+        int value = 0;
+        while (hash.length() < precision) {
+            if (longitudeBit) {
+                double middle = (minLon + maxLon) / 2;
+                if (longitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLon = middle;
+                } else {
+                    value <<= 1;
+                    maxLon = middle;
+                }
+            } else {
+                double middle = (minLat + maxLat) / 2;
+                if (latitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLat = middle;
+                } else {
+                    value <<= 1;
+                    maxLat = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+            if (++bits == 5) {
+                hash.append(BASE32[value]);
+                bits = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Returns the prefixes of the cells covering a circle, or null if the circle is so large
+     * that every location has to be looked at anyway.
+     */
+    static Set<String> getCoveringCells(double latitude, double longitude, double radiusKm) {
+        double latitudeSpan = radiusKm / KM_PER_DEGREE;
+        double longitudeSpan = radiusKm /
+                (KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+
+        // The finest cells at least as large as the bounding box of the circle, so the box
+        // overlaps at most two of them in each direction, which its corners all fall in
+        for (int precision = PRECISION; precision > 0; precision--) {
+            int longitudeBits = (5 * precision + 1) / 2;
+            int latitudeBits = 5 * precision / 2;
+            if (360.0 / (1L << longitudeBits) < 2 * longitudeSpan
+                    || 180.0 / (1L << latitudeBits) < 2 * latitudeSpan) {
+                continue;
+            }
+            double south = Math.max(latitude - latitudeSpan, -90);
+            double north = Math.min(latitude + latitudeSpan, 90);
+            double west = wrapLongitude(longitude - longitudeSpan);
+            double east = wrapLongitude(longitude + longitudeSpan);
+            Set<String> cells = new HashSet<>();
+            cells.add(encode(south, west, precision));
+            cells.add(encode(south, east, precision));
+            cells.add(encode(north, west, precision));
+            cells.add(encode(north, east, precision));
+            return cells;
+        }
+        return null;
+    }
+
+    /**
+     * Great-circle distance between two points, in kilometers.
+     */
+    static double distanceKm(double latitude1, double longitude1,
+                             double latitude2, double longitude2) {
+        double dLat = Math.toRadians(latitude2 - latitude1);
+        double dLon = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double wrapLongitude(double longitude) {
+        return ((longitude + 180) % 360 + 360) % 360 - 180;
+    }
+}
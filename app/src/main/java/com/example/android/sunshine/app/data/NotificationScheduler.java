@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Change notifications of the WeatherProvider.  Changed URIs are collected and sent at most
+ * once per interval, so a burst of writes makes every loader requery once instead of once per
+ * write.  While a batch is open nothing is sent; closing the last one sends everything at once.
+ *
+ * Notifications go out from a background thread, never from the writer's.
+ */
+class NotificationScheduler {
+
+    private final ContentResolver mResolver;
+    private final long mIntervalMillis;
+    private final Handler mHandler;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // All guarded by this
+    private LinkedHashSet<Uri> mDirtyUris = new LinkedHashSet<>();
+    private int mBatchDepth;
+    private boolean mFlushScheduled;
+    private long mLastFlushTime;
+
+    NotificationScheduler(ContentResolver resolver, long intervalMillis) {
+        mResolver = resolver;
+        mIntervalMillis = intervalMillis;
+        HandlerThread thread = new HandlerThread("WeatherProviderNotifications",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Marks a URI as changed.  Its observers will hear about it within the interval, or when
+     * the open batch ends.
+     */
+    synchronized void notifyChange(Uri uri) {
+        mDirtyUris.add(uri);
+        if (mBatchDepth == 0 && !mFlushScheduled) {
+            mFlushScheduled = true;
+            long delay = mLastFlushTime + mIntervalMillis - SystemClock.uptimeMillis();
+            mHandler.postDelayed(mFlush, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Holds back notifications until the matching {@link #endBatch}.  Batches nest.
+     */
+    synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch, sending what changed in it right away if it was the outermost one.
+     */
+    synchronized void endBatch() {
+        if (--mBatchDepth == 0 && !mDirtyUris.isEmpty()) {
+            mHandler.removeCallbacks(mFlush);
+            mFlushScheduled = true;
+            mHandler.post(mFlush);
+        }
+    }
+
+    private void flush() {
+        LinkedHashSet<Uri> uris;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mBatchDepth != 0) {
+                // endBatch will flush
+                return;
+            }
+            uris = mDirtyUris;
+            mDirtyUris = new LinkedHashSet<>();
+            mLastFlushTime = SystemClock.uptimeMillis();
+        }
+        for (Uri uri : uris) {
+            if (!hasAncestorIn(uris, uri)) {
+                mResolver.notifyChange(uri, null);
+            }
+        }
+    }
+
+    // Observers of a URI's descendants are told when the URI itself changes, so a URI whose
+    // parent is also being sent needs no notification of its own.
+    private static boolean hasAncestorIn(LinkedHashSet<Uri> uris, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder ancestor = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .authority(uri.getAuthority());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            ancestor.appendPath(segments.get(i));
+            if (uris.contains(ancestor.build())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
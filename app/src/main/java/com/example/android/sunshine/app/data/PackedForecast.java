@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The whole forecast of one location packed into a single byte array, as stored in the
+ * packed_forecast table.
+ *
+ * The layout is a version byte, the number of days, a dictionary of the distinct descriptions,
+ * then one fixed size record per day in date order.  Accessors read the fields in place, so
+ * going through the forecast doesn't allocate anything once it is unpacked.
+ */
+public final class PackedForecast {
+
+    // Bump this whenever the layout changes.  Blobs of another version are ignored by unpack()
+    // and rebuilt by the provider.
+    public static final byte VERSION = 2;
+
+    // Columns to query, in this order, to get a cursor that pack() understands.
+    static final String[] PACK_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_SHORT_DESC = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_HUMIDITY = 5;
+    private static final int COL_PRESSURE = 6;
+    private static final int COL_WIND_SPEED = 7;
+    private static final int COL_DEGREES = 8;
+
+    // Offsets of the fields within a day record
+    private static final int OFFSET_DATE = 0;
+    private static final int OFFSET_WEATHER_ID = 4;
+    private static final int OFFSET_SHORT_DESC = 8;
+    private static final int OFFSET_MIN_TEMP = 10;
+    private static final int OFFSET_MAX_TEMP = 14;
+    private static final int OFFSET_HUMIDITY = 18;
+    private static final int OFFSET_PRESSURE = 22;
+    private static final int OFFSET_WIND_SPEED = 26;
+    private static final int OFFSET_DEGREES = 30;
+    private static final int RECORD_SIZE = 34;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final String[] mDescriptions;
+    private final int mCount;
+    private final int mRecordsOffset;
+
+    private PackedForecast(ByteBuffer buffer, String[] descriptions, int count, int recordsOffset) {
+        mBuffer = buffer;
+        mDescriptions = descriptions;
+        mCount = count;
+        mRecordsOffset = recordsOffset;
+    }
+
+    /**
+     * Packs every row of a cursor over PACK_COLUMNS, which must be sorted by date.
+     */
+    static byte[] pack(Cursor cursor) {
+        HashMap<String, Integer> descriptionIndexes = new HashMap<>();
+        ArrayList<byte[]> descriptions = new ArrayList<>();
+        int descriptionsSize = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String description = getShortDesc(cursor);
+            if (!descriptionIndexes.containsKey(description)) {
+                byte[] encoded = description.getBytes(UTF_8);
+                descriptionIndexes.put(description, descriptions.size());
+                descriptions.add(encoded);
+                descriptionsSize += 2 + encoded.length;
+            }
+        }
+
+        int count = cursor.getCount();
+        ByteBuffer buffer = ByteBuffer.allocate(
+                1 + 2 + 2 + descriptionsSize + count * RECORD_SIZE);
+        buffer.put(VERSION);
+        buffer.putShort((short) count);
+        buffer.putShort((short) descriptions.size());
+        for (byte[] description : descriptions) {
+            buffer.putShort((short) description.length);
+            buffer.put(description);
+        }
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            buffer.putInt(cursor.getInt(COL_DATE));
+            buffer.putInt(cursor.getInt(COL_WEATHER_ID));
+            buffer.putShort(descriptionIndexes.get(getShortDesc(cursor)).shortValue());
+            buffer.putFloat(cursor.getFloat(COL_MIN_TEMP));
+            buffer.putFloat(cursor.getFloat(COL_MAX_TEMP));
+            buffer.putFloat(cursor.getFloat(COL_HUMIDITY));
+            buffer.putFloat(cursor.getFloat(COL_PRESSURE));
+            buffer.putFloat(cursor.getFloat(COL_WIND_SPEED));
+            buffer.putFloat(cursor.getFloat(COL_DEGREES));
+        }
+        return buffer.array();
+    }
+
+    // The description is joined from the weather_condition table, and missing for a weather id
+    // that was never given one
+    private static String getShortDesc(Cursor cursor) {
+        String description = cursor.getString(COL_SHORT_DESC);
+        return description != null ? description : "";
+    }
+
+    /**
+     * Returns the forecast packed in a blob, or null if the blob is missing or was packed with
+     * another version of the layout.
+     */
+    public static PackedForecast unpack(byte[] blob) {
+        if (blob == null || blob.length == 0 || blob[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        buffer.position(1);
+        int count = buffer.getShort();
+        String[] descriptions = new String[buffer.getShort()];
+        for (int i = 0; i < descriptions.length; i++) {
+            int length = buffer.getShort();
+            descriptions[i] = new String(blob, buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        return new PackedForecast(buffer, descriptions, count, buffer.position());
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the position of the first day on or after a Julian day, or getCount() if the
+     * forecast ends before it.
+     */
+    public int findFirstDayOnOrAfter(int date) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getDate(middle) < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int getDate(int position) {
+        return mBuffer.getInt(offsetOf(position) + OFFSET_DATE);
+    }
+
+    public int getWeatherId(int position) {
+        return mBuffer.getInt(offsetOf(position) + OFFSET_WEATHER_ID);
+    }
+
+    public String getShortDesc(int position) {
+        return mDescriptions[mBuffer.getShort(offsetOf(position) + OFFSET_SHORT_DESC)];
+    }
+
+    public float getMinTemp(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_MIN_TEMP);
+    }
+
+    public float getMaxTemp(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_MAX_TEMP);
+    }
+
+    public float getHumidity(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_HUMIDITY);
+    }
+
+    public float getPressure(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_PRESSURE);
+    }
+
+    public float getWindSpeed(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_WIND_SPEED);
+    }
+
+    public float getDegrees(int position) {
+        return mBuffer.getFloat(offsetOf(position) + OFFSET_DEGREES);
+    }
+
+    /**
+     * Returns one day of the forecast in the same Bundle as METHOD_GET_DAY_WEATHER.
+     */
+    public Bundle getDayWeather(int position) {
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.COLUMN_DATE, getDate(position));
+        result.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, getWeatherId(position));
+        result.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getShortDesc(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, getMinTemp(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, getMaxTemp(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, getHumidity(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE, getPressure(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, getWindSpeed(position));
+        result.putDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES, getDegrees(position));
+        return result;
+    }
+
+    private int offsetOf(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + position + " of " + mCount);
+        }
+        return mRecordsOffset + position * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency and row counts of the WeatherProvider operations, per operation and UriMatcher code,
+ * and a log of the slowest ones.  Recording never takes a lock, as it happens on every binder
+ * thread calling into the provider.  Read through the diagnostics URIs.
+ */
+class ProviderStats {
+
+    static final String OPERATION_QUERY = "query";
+    static final String OPERATION_INSERT = "insert";
+    static final String OPERATION_BULK_INSERT = "bulk_insert";
+    static final String OPERATION_UPDATE = "update";
+    static final String OPERATION_DELETE = "delete";
+
+    // Longer than a frame, so anything the UI thread would notice
+    static final long SLOW_OPERATION_MICROS = 16000;
+
+    private static final int SLOW_LOG_SIZE = 32;
+
+    // Bucket i holds the operations that took less than 2^(i+1) microseconds, the last one
+    // everything slower than about 8 seconds.
+    private static final int BUCKET_COUNT = 24;
+
+    private static final String SQLITE_QUERY_PREFIX = "SQLiteQuery: ";
+
+    // The SQL of the last query each thread ran, as the provider builds it in many ways
+    private static final ThreadLocal<String> sLastSql = new ThreadLocal<>();
+
+    /**
+     * Creates the cursors of the database like the default factory, and remembers their SQL
+     * for the slow log.
+     */
+    static final SQLiteDatabase.CursorFactory CURSOR_FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            sLastSql.set(query.toString());
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+
+        void add(long micros, int rowCount) {
+            int bucket = 63 - Long.numberOfLeadingZeros(Math.max(micros, 1));
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            rows.addAndGet(rowCount);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        // Upper bound of the bucket holding the given percentile
+        long getPercentileMicros(int percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                total += buckets.get(i);
+            }
+            long threshold = (total * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold && seen > 0) {
+                    return 1L << (i + 1);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class SlowOperation {
+        final long time;
+        final String operation;
+        final String uri;
+        final long micros;
+        final String sql;
+        final String queryPlan;
+
+        SlowOperation(long time, String operation, String uri, long micros, String sql,
+                      String queryPlan) {
+            this.time = time;
+            this.operation = operation;
+            this.uri = uri;
+            this.micros = micros;
+            this.sql = sql;
+            this.queryPlan = queryPlan;
+        }
+    }
+
+    // Keyed by operation and match code
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    // Ring buffer of the last slow operations
+    private final AtomicReferenceArray<SlowOperation> mSlowOperations =
+            new AtomicReferenceArray<>(SLOW_LOG_SIZE);
+    private final AtomicInteger mNextSlowOperation = new AtomicInteger();
+
+    /**
+     * Returns the start time to pass to the record methods, and forgets the SQL of the
+     * previous query run by this thread.
+     */
+    static long start() {
+        sLastSql.remove();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a query.  The cursor must have been run already, by counting its rows, for the
+     * time to mean anything.  Slow queries are logged with their query plan.
+     */
+    void recordQuery(SQLiteOpenHelper openHelper, int match, Uri uri, long start, int rows) {
+        long micros = record(OPERATION_QUERY, match, start, rows);
+        if (micros >= SLOW_OPERATION_MICROS) {
+            String sql = sLastSql.get();
+            if (sql != null && sql.startsWith(SQLITE_QUERY_PREFIX)) {
+                sql = sql.substring(SQLITE_QUERY_PREFIX.length());
+            }
+            logSlowOperation(OPERATION_QUERY, uri, micros, sql,
+                    sql != null ? explainQueryPlan(openHelper.getReadableDatabase(), sql) : null);
+        }
+    }
+
+    /**
+     * Records a write.  Slow writes are logged with their selection, if any.
+     */
+    void recordWrite(String operation, int match, Uri uri, String selection, long start,
+                     int rows) {
+        long micros = record(operation, match, start, rows);
+        if (micros >= SLOW_OPERATION_MICROS) {
+            logSlowOperation(operation, uri, micros, selection, null);
+        }
+    }
+
+    private long record(String operation, int match, long start, int rows) {
+        long micros = (System.nanoTime() - start) / 1000;
+        String key = operation + ":" + match;
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = mHistograms.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.add(micros, rows);
+        return micros;
+    }
+
+    private void logSlowOperation(String operation, Uri uri, long micros, String sql,
+                                  String queryPlan) {
+        int slot = (mNextSlowOperation.getAndIncrement() & Integer.MAX_VALUE) % SLOW_LOG_SIZE;
+        mSlowOperations.set(slot, new SlowOperation(System.currentTimeMillis(), operation,
+                uri.toString(), micros, sql, queryPlan));
+    }
+
+    /**
+     * Returns the details of the query plan of a statement, one step per line.
+     */
+    static String explainQueryPlan(SQLiteDatabase db, String sql) {
+        // The arguments aren't known any more, but the plan doesn't depend on their values
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detailColumn = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumn));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    Cursor getLatencies() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.DiagnosticsEntry.COLUMN_OPERATION,
+                WeatherContract.DiagnosticsEntry.COLUMN_MATCH,
+                WeatherContract.DiagnosticsEntry.COLUMN_COUNT,
+                WeatherContract.DiagnosticsEntry.COLUMN_ROWS,
+                WeatherContract.DiagnosticsEntry.COLUMN_TOTAL_MICROS,
+                WeatherContract.DiagnosticsEntry.COLUMN_MAX_MICROS,
+                WeatherContract.DiagnosticsEntry.COLUMN_P50_MICROS,
+                WeatherContract.DiagnosticsEntry.COLUMN_P95_MICROS,
+                WeatherContract.DiagnosticsEntry.COLUMN_P99_MICROS});
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            String key = entry.getKey();
+            int separator = key.lastIndexOf(':');
+            Histogram histogram = entry.getValue();
+            cursor.addRow(new Object[]{
+                    key.substring(0, separator),
+                    Integer.parseInt(key.substring(separator + 1)),
+                    histogram.count.get(),
+                    histogram.rows.get(),
+                    histogram.totalMicros.get(),
+                    histogram.maxMicros.get(),
+                    histogram.getPercentileMicros(50),
+                    histogram.getPercentileMicros(95),
+                    histogram.getPercentileMicros(99)});
+        }
+        return cursor;
+    }
+
+    Cursor getSlowOperations() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.DiagnosticsEntry.COLUMN_TIME,
+                WeatherContract.DiagnosticsEntry.COLUMN_OPERATION,
+                WeatherContract.DiagnosticsEntry.COLUMN_URI,
+                WeatherContract.DiagnosticsEntry.COLUMN_DURATION_MICROS,
+                WeatherContract.DiagnosticsEntry.COLUMN_SQL,
+                WeatherContract.DiagnosticsEntry.COLUMN_QUERY_PLAN});
+        for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+            SlowOperation slowOperation = mSlowOperations.get(i);
+            if (slowOperation != null) {
+                cursor.addRow(new Object[]{
+                        slowOperation.time,
+                        slowOperation.operation,
+                        slowOperation.uri,
+                        slowOperation.micros,
+                        slowOperation.sql,
+                        slowOperation.queryPlan});
+            }
+        }
+        return cursor;
+    }
+}
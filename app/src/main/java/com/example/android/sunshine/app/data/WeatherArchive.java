@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * The locations, weather and history of the database as a compact stream of bytes, to back
+ * them up or seed another device.  Trends and packed forecasts are left out: they are rebuilt
+ * from the rest on import.
+ *
+ * After a header come the weather ids with their descriptions, then every location followed
+ * by its weather and history rows in date order, and an end marker.  Numbers are variable
+ * length.  Dates are written as the difference from the previous row, weather ids as their
+ * index in the list at the start, and measurements in tenths of their unit, which is finer
+ * than what the server sends.
+ */
+final class WeatherArchive {
+
+    // "SWA" and a zero byte
+    private static final int MAGIC = 0x53574100;
+
+    // Bump this whenever the layout changes.  Archives of another version are refused.
+    static final int VERSION = 1;
+
+    // "END!", written after the last location so a truncated archive is noticed
+    private static final int END_MARKER = 0x454E4421;
+
+    // No count in an archive we write comes near this: a location with a row for every day of
+    // over a century.  A larger count means the file is something else, and reading it on would
+    // only allocate for it.
+    private static final int MAX_COUNT = 1 << 16;
+
+    private static final double MEASUREMENT_SCALE = 10;
+    private static final double COORDINATE_SCALE = 1000000;
+
+    // Pressures are written relative to this, in hPa, which keeps them to two bytes
+    private static final int REFERENCE_PRESSURE = 1013;
+
+    // Weather and history share these column names, see HistoryEntry
+    private static final String[] ROW_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_MIN_TEMP = 2;
+    private static final int COL_MAX_TEMP = 3;
+    private static final int COL_HUMIDITY = 4;
+    private static final int COL_PRESSURE = 5;
+    private static final int COL_WIND_SPEED = 6;
+    private static final int COL_DEGREES = 7;
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int COL_LOCATION_ID = 0;
+    private static final int COL_LOCATION_SETTING = 1;
+    private static final int COL_CITY_NAME = 2;
+    private static final int COL_COORD_LAT = 3;
+    private static final int COL_COORD_LONG = 4;
+
+    // Every weather id in use, with its description when there is one
+    private static final String sWeatherIdsSql =
+            "SELECT ids." + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherConditionEntry.COLUMN_SHORT_DESC +
+            " FROM (SELECT " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " UNION SELECT " + WeatherContract.HistoryEntry.COLUMN_WEATHER_ID +
+                    " FROM " + WeatherContract.HistoryEntry.TABLE_NAME + ") AS ids" +
+            " LEFT JOIN " + WeatherContract.WeatherConditionEntry.TABLE_NAME +
+                    " ON ids." + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = " +
+                    WeatherContract.WeatherConditionEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherConditionEntry.COLUMN_CONDITION_ID;
+
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?";
+
+    /**
+     * Receives the rows of an archive as it is read.
+     */
+    interface Sink {
+        /**
+         * Stores a location and returns its id, which the weather and history rows that follow
+         * get as their location key.
+         */
+        long putLocation(ContentValues values);
+
+        void putCondition(int weatherId, String shortDesc);
+
+        void putWeather(ContentValues values);
+
+        void putHistory(ContentValues values);
+    }
+
+    /**
+     * Numbers of rows written or read.
+     */
+    static final class Counts {
+        int locations;
+        int weather;
+        int history;
+    }
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Writes the whole database.  Call it inside a transaction to get a consistent copy.
+     */
+    static Counts write(SQLiteDatabase db, DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+
+        HashMap<Integer, Integer> weatherIdIndexes = new HashMap<>();
+        Cursor cursor = db.rawQuery(sWeatherIdsSql, null);
+        try {
+            writeVarint(out, cursor.getCount());
+            while (cursor.moveToNext()) {
+                int weatherId = cursor.getInt(0);
+                weatherIdIndexes.put(weatherId, weatherIdIndexes.size());
+                writeSignedVarint(out, weatherId);
+                boolean hasDescription = !cursor.isNull(1);
+                out.writeBoolean(hasDescription);
+                if (hasDescription) {
+                    out.writeUTF(cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Counts counts = new Counts();
+        Cursor locations = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                LOCATION_COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                WeatherContract.LocationEntry._ID + " ASC"
+        );
+        try {
+            counts.locations = locations.getCount();
+            writeVarint(out, counts.locations);
+            while (locations.moveToNext()) {
+                out.writeUTF(locations.getString(COL_LOCATION_SETTING));
+                out.writeUTF(locations.getString(COL_CITY_NAME));
+                out.writeInt((int) Math.round(locations.getDouble(COL_COORD_LAT) * COORDINATE_SCALE));
+                out.writeInt((int) Math.round(locations.getDouble(COL_COORD_LONG) * COORDINATE_SCALE));
+                String[] locationIdArgs = new String[]{locations.getString(COL_LOCATION_ID)};
+                counts.weather += writeRows(db, out, WeatherContract.WeatherEntry.TABLE_NAME,
+                        locationIdArgs, weatherIdIndexes);
+                counts.history += writeRows(db, out, WeatherContract.HistoryEntry.TABLE_NAME,
+                        locationIdArgs, weatherIdIndexes);
+            }
+        } finally {
+            locations.close();
+        }
+
+        out.writeInt(END_MARKER);
+        return counts;
+    }
+
+    private static int writeRows(SQLiteDatabase db, DataOutput out, String table,
+                                 String[] locationIdArgs, HashMap<Integer, Integer> weatherIdIndexes)
+            throws IOException {
+        Cursor cursor = db.query(table,
+                ROW_COLUMNS,
+                sLocationIdSelection,
+                locationIdArgs,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        try {
+            writeVarint(out, cursor.getCount());
+            int previousDate = 0;
+            while (cursor.moveToNext()) {
+                int date = cursor.getInt(COL_DATE);
+                writeSignedVarint(out, date - previousDate);
+                previousDate = date;
+                writeVarint(out, weatherIdIndexes.get(cursor.getInt(COL_WEATHER_ID)));
+                int minTemp = quantize(cursor.getDouble(COL_MIN_TEMP));
+                writeSignedVarint(out, minTemp);
+                writeSignedVarint(out, quantize(cursor.getDouble(COL_MAX_TEMP)) - minTemp);
+                writeSignedVarint(out, quantize(cursor.getDouble(COL_HUMIDITY)));
+                writeSignedVarint(out,
+                        quantize(cursor.getDouble(COL_PRESSURE) - REFERENCE_PRESSURE));
+                writeSignedVarint(out, quantize(cursor.getDouble(COL_WIND_SPEED)));
+                writeSignedVarint(out, quantize(cursor.getDouble(COL_DEGREES)));
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads an archive into a sink, row by row.  Throws an IOException if the stream is not an
+     * archive of this version, or ends early.
+     */
+    static Counts read(DataInput in, Sink sink) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a weather archive");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported weather archive version " + version);
+        }
+
+        int[] weatherIds = new int[readCount(in)];
+        for (int i = 0; i < weatherIds.length; i++) {
+            weatherIds[i] = readSignedVarint(in);
+            if (in.readBoolean()) {
+                sink.putCondition(weatherIds[i], in.readUTF());
+            }
+        }
+
+        Counts counts = new Counts();
+        counts.locations = readCount(in);
+        for (int i = 0; i < counts.locations; i++) {
+            ContentValues location = new ContentValues();
+            location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, in.readUTF());
+            location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, in.readUTF());
+            location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    in.readInt() / COORDINATE_SCALE);
+            location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    in.readInt() / COORDINATE_SCALE);
+            long locationId = sink.putLocation(location);
+
+            int weatherCount = readCount(in);
+            int previousDate = 0;
+            for (int j = 0; j < weatherCount; j++) {
+                ContentValues values = readRow(in, locationId, previousDate, weatherIds);
+                previousDate = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+                sink.putWeather(values);
+            }
+            int historyCount = readCount(in);
+            previousDate = 0;
+            for (int j = 0; j < historyCount; j++) {
+                ContentValues values = readRow(in, locationId, previousDate, weatherIds);
+                previousDate = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+                sink.putHistory(values);
+            }
+            counts.weather += weatherCount;
+            counts.history += historyCount;
+        }
+
+        if (in.readInt() != END_MARKER) {
+            throw new IOException("Weather archive is corrupt");
+        }
+        return counts;
+    }
+
+    private static ContentValues readRow(DataInput in, long locationId, int previousDate,
+                                         int[] weatherIds) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, previousDate + readSignedVarint(in));
+        int weatherIdIndex = readVarint(in);
+        if (weatherIdIndex < 0 || weatherIdIndex >= weatherIds.length) {
+            throw new IOException("Weather archive is corrupt");
+        }
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds[weatherIdIndex]);
+        int minTemp = readSignedVarint(in);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemp / MEASUREMENT_SCALE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                (minTemp + readSignedVarint(in)) / MEASUREMENT_SCALE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                readSignedVarint(in) / MEASUREMENT_SCALE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                REFERENCE_PRESSURE + readSignedVarint(in) / MEASUREMENT_SCALE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                readSignedVarint(in) / MEASUREMENT_SCALE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                readSignedVarint(in) / MEASUREMENT_SCALE);
+        return values;
+    }
+
+    private static int quantize(double value) {
+        return (int) Math.round(value * MEASUREMENT_SCALE);
+    }
+
+    // Seven bits per byte, low bits first, the high bit set on every byte but the last
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Weather archive is corrupt");
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = readVarint(in);
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Weather archive is corrupt");
+        }
+        return count;
+    }
+
+    // Zigzag encoding, so small negative numbers stay short too
+    static void writeSignedVarint(DataOutput out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarint(DataInput in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -17,9 +17,12 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +46,81 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_TREND = "trend";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+
+    // Methods understood by the ContentProvider through ContentResolver.call().  These are
+    // operations that don't map to a single table, so they don't get a URI of their own.
+    // Enforces the retention policy and compacts the database.  The optional argument is a
+    // location setting that must be kept even if it no longer has any weather rows.
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    // Keys of the Bundle returned by METHOD_RUN_MAINTENANCE.
+    public static final String KEY_WEATHER_DELETED = "weather_deleted";
+    public static final String KEY_LOCATIONS_DELETED = "locations_deleted";
+
+    // Returns the weather of a single day for the location setting given as argument, as a
+    // Bundle keyed by WeatherEntry column names, or null if there is no such day.  This is what
+    // the widgets, the notification, Muzei and the watch need, without the cost of a Cursor.
+    // The extras are built by WeatherEntry.buildDayWeatherExtras.
+    public static final String METHOD_GET_DAY_WEATHER = "get_day_weather";
+
+    // Extras of METHOD_GET_DAY_WEATHER: the day wanted, and whether it has to be that exact day
+    // rather than the first day available from it.
+    public static final String KEY_DATE = "date";
+    public static final String KEY_EXACT_DATE = "exact_date";
+
+    // Returns the whole forecast of the location setting given as argument in a Bundle, packed
+    // into a byte array under KEY_PACKED_FORECAST, or null if there is no forecast.  Decode it
+    // with PackedForecast.unpack.
+    public static final String METHOD_GET_PACKED_FORECAST = "get_packed_forecast";
+    public static final String KEY_PACKED_FORECAST = "packed_forecast";
+
+    // Write every location with its weather and history to, or merge them back from, the
+    // ParcelFileDescriptor passed under KEY_ARCHIVE_FILE.  The descriptor stays the caller's,
+    // who must close it once the call returns.  The call blocks until the whole archive has been
+    // written or read, so the other end of a pipe has to be served from another thread.
+    // The format is compact and versioned, with measurements kept to a tenth of their unit.
+    // Both return the number of rows under KEY_LOCATION_COUNT, KEY_WEATHER_COUNT and
+    // KEY_HISTORY_COUNT, or null if the archive couldn't be written or read.  A failed import
+    // changes nothing.
+    public static final String METHOD_EXPORT_ARCHIVE = "export_archive";
+    public static final String METHOD_IMPORT_ARCHIVE = "import_archive";
+    public static final String KEY_ARCHIVE_FILE = "archive_file";
+    public static final String KEY_LOCATION_COUNT = "location_count";
+    public static final String KEY_WEATHER_COUNT = "weather_count";
+    public static final String KEY_HISTORY_COUNT = "history_count";
+
+    // Writes what a sync fetched for the location setting given as argument, in a single
+    // transaction: the location is inserted or updated, its days are written and archived, and
+    // the weather of every location before the first day to keep is deleted.  The extras are
+    // built by WeatherEntry.buildCommitForecastExtras.  Returns the number of days written under
+    // KEY_WEATHER_COUNT and of days deleted under KEY_WEATHER_DELETED.
+    public static final String METHOD_COMMIT_FORECAST = "commit_forecast";
+
+    // Extras of METHOD_COMMIT_FORECAST: the LocationEntry values of the location, and the
+    // WeatherEntry values of each day, without a location key.  The first day to keep goes under
+    // KEY_DATE.
+    public static final String KEY_LOCATION = "location";
+    public static final String KEY_FORECAST = "forecast";
+
+    // Julian day number of January 1st 1970, as in Time.getJulianDay
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // To make it easy to query for the exact date, and to keep the keys of the indexes small,
+    // all the dates that go into the database are Julian day numbers in the local time zone.
+    // This is the same day number as Time.getJulianDay, without allocating a Time.
+    public static int getJulianDay(long millis) {
+        return (int) ((millis + TimeZone.getDefault().getOffset(millis)) / DAY_IN_MILLIS)
+                + EPOCH_JULIAN_DAY;
+    }
 
-    // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
-    public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+    // Returns the start of a Julian day in the local time zone, for display.
+    public static long getMillisFromJulianDay(int julianDay) {
+        long utcMillis = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        return utcMillis - TimeZone.getDefault().getOffset(utcMillis);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +150,69 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Geohash of the coordinates, filled in by the provider, which indexes the locations
+        // by where they are.
+        public static final String COLUMN_GEOHASH = "geohash";
+
+        // Path and query parameters of the location search.
+        public static final String PATH_SEARCH = "search";
+        public static final String QUERY_PARAMETER_QUERY = "q";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // Path and query parameters of the nearby locations.  The radius is in kilometers.
+        public static final String PATH_NEAR = "near";
+        public static final String QUERY_PARAMETER_LAT = "lat";
+        public static final String QUERY_PARAMETER_LON = "lon";
+        public static final String QUERY_PARAMETER_RADIUS = "radius";
+
+        // Added to the location columns by the nearby locations: the distance in kilometers.
+        public static final String COLUMN_DISTANCE = "distance";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            Uri of the locations matching what the user typed so far, each word being taken as a
+            prefix.  The results have the columns of LocationSearchEntry, the locations we already
+            have coming first.
+         */
+        public static Uri buildLocationSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, query).build();
+        }
+
+        /*
+            Uri of the locations within radiusKm of a point, nearest first.  The results have the
+            columns of the location table and COLUMN_DISTANCE.
+         */
+        public static Uri buildLocationNearUri(double lat, double lon, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(QUERY_PARAMETER_LAT, Double.toString(lat))
+                    .appendQueryParameter(QUERY_PARAMETER_LON, Double.toString(lon))
+                    .appendQueryParameter(QUERY_PARAMETER_RADIUS, Double.toString(radiusKm))
+                    .build();
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the location search index, an FTS4 table
+        over the locations in the location table, which triggers keep up to date, and over a
+        list of cities bundled with the app.
+     */
+    public static final class LocationSearchEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "location_search";
+
+        // What to put in the location setting when this suggestion is picked
+        public static final String COLUMN_SUGGESTION = "suggestion";
+        // Human readable name of the place, searched as well
+        public static final String COLUMN_CITY_NAME = "city_name";
+        // Row id in the location table, or null for the bundled cities we never synced
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Where the place is, so a nearby location can stand in for it before its first sync
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -101,14 +230,15 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as long in milliseconds since the epoch
+        // Date, stored as its Julian day number, see getJulianDay
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
         // Short description and long description of the weather, as provided by API.
-        // e.g "clear" vs "sky is clear".
-        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // e.g "clear" vs "sky is clear".  Only stored once per weather id, in the
+        // weather_condition table, but it can be read and written like any other column.
+        public static final String COLUMN_SHORT_DESC = WeatherConditionEntry.COLUMN_SHORT_DESC;
 
         // Min and max temperatures for the day (stored as floats)
         public static final String COLUMN_MIN_TEMP = "min";
@@ -126,6 +256,18 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Pages of weather/* and history/*: the rows after a date, sorted by date, and at most
+        // limit of them.  The next page is the one after the date of the last row.
+        public static final String QUERY_PARAMETER_AFTER_DATE = "after_date";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // Weather of several locations in one query, from the date to the end date included,
+        // sorted by location setting and date.  The location parameter is repeated for each
+        // location setting.
+        public static final String PATH_MULTI = "multi";
+        public static final String QUERY_PARAMETER_LOCATION = "location";
+        public static final String QUERY_PARAMETER_END_DATE = "end_date";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -137,32 +279,283 @@ public class WeatherContract {
             return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
 
+        // The dates taken by the methods below are Julian days, see getJulianDay.
+
         public static Uri buildWeatherLocationWithStartDate(
-                String locationSetting, long startDate) {
-            long normalizedDate = normalizeDate(startDate);
+                String locationSetting, int startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Integer.toString(startDate)).build();
+        }
+
+        public static Uri buildWeatherLocationPage(String locationSetting, int afterDate,
+                                                   int limit) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_DATE, Integer.toString(afterDate))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherMultiUri(String[] locationSettings, int startDate,
+                                               int endDate) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(PATH_MULTI);
+            for (String locationSetting : locationSettings) {
+                builder.appendQueryParameter(QUERY_PARAMETER_LOCATION, locationSetting);
+            }
+            return builder
+                    .appendQueryParameter(COLUMN_DATE, Integer.toString(startDate))
+                    .appendQueryParameter(QUERY_PARAMETER_END_DATE, Integer.toString(endDate))
+                    .build();
         }
 
-        public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+        public static Uri buildWeatherLocationWithDate(String locationSetting, int date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendPath(Long.toString(normalizeDate(date))).build();
+                    .appendPath(Integer.toString(date)).build();
+        }
+
+        public static Bundle buildCommitForecastExtras(ContentValues location,
+                                                       ContentValues[] forecast, int firstDate) {
+            Bundle extras = new Bundle();
+            extras.putParcelable(KEY_LOCATION, location);
+            extras.putParcelableArray(KEY_FORECAST, forecast);
+            extras.putInt(KEY_DATE, firstDate);
+            return extras;
+        }
+
+        public static Bundle buildDayWeatherExtras(int date, boolean exactDate) {
+            Bundle extras = new Bundle();
+            extras.putInt(KEY_DATE, date);
+            extras.putBoolean(KEY_EXACT_DATE, exactDate);
+            return extras;
         }
 
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+        public static int getDateFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
         }
 
-        public static long getStartDateFromUri(Uri uri) {
+        public static int getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
-                return Long.parseLong(dateString);
+                return Integer.parseInt(dateString);
             else
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the diagnostics of the ContentProvider.  They aren't stored:
+        every query returns what was recorded since the process started.
+     */
+    public static final class DiagnosticsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // One row per operation and UriMatcher code
+        public static final String PATH_LATENCY = "latency";
+        // The last slow operations, in no particular order
+        public static final String PATH_SLOW_OPERATIONS = "slow_operations";
+
+        // Columns of both.  The operation is one of query, insert, bulk_insert, update or delete.
+        public static final String COLUMN_OPERATION = "operation";
+
+        // Columns of the latencies.  The percentiles are the upper bound of a power of two
+        // bucket, so they are within a factor of two.
+        public static final String COLUMN_MATCH = "match";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+        public static final String COLUMN_P50_MICROS = "p50_micros";
+        public static final String COLUMN_P95_MICROS = "p95_micros";
+        public static final String COLUMN_P99_MICROS = "p99_micros";
+
+        // Columns of the slow operations.  The SQL of a write is only its selection, and only
+        // queries have a plan.
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_DURATION_MICROS = "duration_micros";
+        public static final String COLUMN_SQL = "sql";
+        public static final String COLUMN_QUERY_PLAN = "query_plan";
+
+        public static Uri buildLatencyUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LATENCY).build();
+        }
+
+        public static Uri buildSlowOperationsUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SLOW_OPERATIONS).build();
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the packed forecast table.  It holds a
+        second copy of the weather table, packed into one PackedForecast blob per location,
+        which the provider rewrites in the same transaction as the weather rows.  It has no
+        URI of its own: read it through METHOD_GET_PACKED_FORECAST.
+     */
+    public static final class PackedForecastEntry {
+
+        public static final String TABLE_NAME = "packed_forecast";
+
+        // Primary key, and foreign key into the location table
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The forecast of the location, as packed by PackedForecast
+        public static final String COLUMN_FORECAST = "forecast";
+    }
+
+    /*
+        Inner class that defines the table contents of the weather condition table, a dictionary
+        of the descriptions of the weather ids.  The provider fills it from the short_desc of the
+        weather it is given and joins it back into every weather query.  It has no URI of its
+        own.
+     */
+    public static final class WeatherConditionEntry {
+
+        public static final String TABLE_NAME = "weather_condition";
+
+        // Primary key, the weather id as returned by the API.  Not named weather_id, so joining
+        // the weather table doesn't make its weather_id column ambiguous.
+        public static final String COLUMN_CONDITION_ID = "condition_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+    }
+
+    /*
+        Inner class that defines the table contents of the history table.  Every forecast the
+        sync writes is copied here, the newest one for a day replacing the older ones, and unlike
+        the weather table it is not pruned once the day has passed.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // The columns mirror the ones of the weather table, minus the description which can be
+        // looked up from the weather id.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithStartDate(String locationSetting, int startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Integer.toString(startDate)).build();
+        }
+
+        public static Uri buildHistoryLocationPage(String locationSetting, int afterDate,
+                                                   int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(WeatherEntry.QUERY_PARAMETER_AFTER_DATE,
+                            Integer.toString(afterDate))
+                    .appendQueryParameter(WeatherEntry.QUERY_PARAMETER_LIMIT,
+                            Integer.toString(limit)).build();
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the trend table, which holds one row of
+        aggregates per location for every week and every month present in the history table.
+        The rows are kept up to date by the provider as the history is written, so reading a
+        trend never has to scan the raw history.
+     */
+    public static final class TrendEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_TREND).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TREND;
+
+        public static final String TABLE_NAME = "trend";
+
+        // Values of COLUMN_PERIOD
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Either PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // Julian day of the first day of the period, see getPeriodStart
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // Number of days of the period present in the history
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // Lowest minimum and highest maximum temperature of the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Mean of the daily mean temperatures ((min + max) / 2) of the period
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        public static Uri buildTrendLocation(String locationSetting, String period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        /**
+         * Returns the Julian day of the first day of the period containing a day.  Weeks
+         * start on Sunday, like Time.weekDay.
+         *
+         * @param period PERIOD_WEEK or PERIOD_MONTH
+         * @param date a Julian day
+         */
+        public static int getPeriodStart(String period, int date) {
+            if (PERIOD_WEEK.equals(period)) {
+                // Julian day 0 was a Monday
+                return date - (date + 1) % 7;
+            } else if (PERIOD_MONTH.equals(period)) {
+                return date - getDayOfMonth(date) + 1;
+            }
+            throw new IllegalArgumentException("Unknown period: " + period);
+        }
+
+        /**
+         * Returns the Julian day of the first day of the period following the one containing
+         * a day.
+         *
+         * @param period PERIOD_WEEK or PERIOD_MONTH
+         * @param date a Julian day
+         */
+        public static int getNextPeriodStart(String period, int date) {
+            if (PERIOD_WEEK.equals(period)) {
+                return getPeriodStart(period, date) + 7;
+            } else if (PERIOD_MONTH.equals(period)) {
+                // No month is longer than 31 days, so this lands in the next one
+                return getPeriodStart(period, getPeriodStart(period, date) + 31);
+            }
+            throw new IllegalArgumentException("Unknown period: " + period);
+        }
+
+        // Day of the month, from 1, of a Julian day in the Gregorian calendar.  This is the
+        // conversion of Fliegel and Van Flandern, stopped once the day is known.
+        private static int getDayOfMonth(int julianDay) {
+            int f = julianDay + 1401 + (((4 * julianDay + 274277) / 146097) * 3) / 4 - 38;
+            int e = 4 * f + 3;
+            int h = 5 * ((e % 1461) / 4) + 2;
+            return (h % 153) / 5 + 1;
+        }
+    }
 }
@@ -16,24 +16,195 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationSearchEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.TrendEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherConditionEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Without the description since version 9, see SQL_CREATE_WEATHER_CONDITION_TABLE.
+    private static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // Added in version 9.  One row per weather id, instead of a description in every weather
+    // row.
+    private static final String SQL_CREATE_WEATHER_CONDITION_TABLE = "CREATE TABLE " +
+            WeatherConditionEntry.TABLE_NAME + " (" +
+            WeatherConditionEntry.COLUMN_CONDITION_ID + " INTEGER PRIMARY KEY, " +
+            WeatherConditionEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);";
+
+    // Added in version 3.  One row per location and day, keeping the last forecast that was
+    // received for that day.
+    private static final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            // Location first, so the rollups can range over the dates of one location
+            // using the index backing this constraint.
+            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // Added in version 3.  One row per location, period type and period.
+    private static final String SQL_CREATE_TREND_TABLE = "CREATE TABLE " + TrendEntry.TABLE_NAME + " (" +
+            TrendEntry._ID + " INTEGER PRIMARY KEY," +
+            TrendEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            TrendEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+            TrendEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+            TrendEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+            TrendEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            TrendEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            TrendEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + TrendEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + TrendEntry.COLUMN_LOC_KEY + ", " + TrendEntry.COLUMN_PERIOD + ", " +
+            TrendEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);";
+
+    // Added in version 4.  Blobs missing after the upgrade are built by the provider the
+    // first time they are asked for.
+    private static final String SQL_CREATE_PACKED_FORECAST_TABLE = "CREATE TABLE " +
+            PackedForecastEntry.TABLE_NAME + " (" +
+            PackedForecastEntry.COLUMN_LOC_KEY + " INTEGER PRIMARY KEY, " +
+            PackedForecastEntry.COLUMN_FORECAST + " BLOB NOT NULL, " +
+            " FOREIGN KEY (" + PackedForecastEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+    // Added in version 5, with the coordinates since version 6.  unicode61 folds case and
+    // accents of every script, not only ASCII, and the location id and coordinates are only
+    // carried along, never searched.
+    private static final String SQL_CREATE_LOCATION_SEARCH_TABLE = "CREATE VIRTUAL TABLE " +
+            LocationSearchEntry.TABLE_NAME + " USING fts4(" +
+            LocationSearchEntry.COLUMN_SUGGESTION + ", " +
+            LocationSearchEntry.COLUMN_CITY_NAME + ", " +
+            LocationSearchEntry.COLUMN_LOC_KEY + ", " +
+            LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+            LocationSearchEntry.COLUMN_COORD_LONG + ", " +
+            "notindexed=" + LocationSearchEntry.COLUMN_LOC_KEY + ", " +
+            "notindexed=" + LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+            "notindexed=" + LocationSearchEntry.COLUMN_COORD_LONG + ", " +
+            "tokenize=unicode61);";
+
+    // Keep the search index in step with the location table, whoever writes to it
+    private static final String SQL_INSERT_LOCATION_SEARCH_ROW = "INSERT INTO " +
+            LocationSearchEntry.TABLE_NAME + " (" +
+            LocationSearchEntry.COLUMN_SUGGESTION + ", " +
+            LocationSearchEntry.COLUMN_CITY_NAME + ", " +
+            LocationSearchEntry.COLUMN_LOC_KEY + ", " +
+            LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+            LocationSearchEntry.COLUMN_COORD_LONG + ") VALUES (new." +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", new." +
+            LocationEntry.COLUMN_CITY_NAME + ", new." + LocationEntry._ID + ", new." +
+            LocationEntry.COLUMN_COORD_LAT + ", new." + LocationEntry.COLUMN_COORD_LONG + ");";
+    private static final String SQL_DELETE_LOCATION_SEARCH_ROW = "DELETE FROM " +
+            LocationSearchEntry.TABLE_NAME + " WHERE " +
+            LocationSearchEntry.COLUMN_LOC_KEY + " = old." + LocationEntry._ID + ";";
+    private static final String[] LOCATION_SEARCH_TRIGGERS = {
+            "location_search_insert", "location_search_update", "location_search_delete"
+    };
+    private static final String[] SQL_CREATE_LOCATION_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER " + LOCATION_SEARCH_TRIGGERS[0] + " AFTER INSERT ON " +
+                    LocationEntry.TABLE_NAME + " BEGIN " +
+                    SQL_INSERT_LOCATION_SEARCH_ROW + " END;",
+            "CREATE TRIGGER " + LOCATION_SEARCH_TRIGGERS[1] + " AFTER UPDATE ON " +
+                    LocationEntry.TABLE_NAME + " BEGIN " +
+                    SQL_DELETE_LOCATION_SEARCH_ROW + " " +
+                    SQL_INSERT_LOCATION_SEARCH_ROW + " END;",
+            "CREATE TRIGGER " + LOCATION_SEARCH_TRIGGERS[2] + " AFTER DELETE ON " +
+                    LocationEntry.TABLE_NAME + " BEGIN " +
+                    SQL_DELETE_LOCATION_SEARCH_ROW + " END;"
+    };
+
+    // Added in version 6.  Locations written around the provider have no geohash, which the
+    // nearby query copes with.
+    private static final String SQL_CREATE_LOCATION_GEOHASH_INDEX = "CREATE INDEX " +
+            LocationEntry.TABLE_NAME + "_" + LocationEntry.COLUMN_GEOHASH + " ON " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GEOHASH + ");";
+
+    // Added in version 7.  The UNIQUE constraint of the weather table starts with the date, so
+    // without this the forecast of one location could only be found by scanning every row.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            WeatherEntry.TABLE_NAME + "_" + WeatherEntry.COLUMN_LOC_KEY + "_" +
+            WeatherEntry.COLUMN_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // Value reported by "PRAGMA auto_vacuum" when incremental vacuum is in effect.
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final Context mContext;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // The cursor factory lets the provider log the SQL of its slow queries
+        super(context, DATABASE_NAME, ProviderStats.CURSOR_FACTORY, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // auto_vacuum can only be chosen before the first table is created, so it has to be
+        // set here rather than in onCreate.  On an existing file this is a no-op until the
+        // next full VACUUM, which compact() takes care of.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
@@ -45,54 +216,242 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_GEOHASH + " TEXT " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GEOHASH_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_CONDITION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_TREND_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_PACKED_FORECAST_TABLE);
+        createLocationSearch(sqLiteDatabase);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 2) {
+            // Versions before 2 were only a cache for online data, so their upgrade policy
+            // is to simply to discard the data and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherConditionEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TrendEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PackedForecastEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationSearchEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        // From here on the history can't be downloaded again, so every version step migrates
+        // the existing tables in place.
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+            sqLiteDatabase.execSQL(SQL_CREATE_TREND_TABLE);
+        }
+        if (oldVersion < 4) {
+            sqLiteDatabase.execSQL(SQL_CREATE_PACKED_FORECAST_TABLE);
+        }
+        if (oldVersion < 6) {
+            // Version 5 had the search index without the coordinates
+            dropLocationSearch(sqLiteDatabase);
+            createLocationSearch(sqLiteDatabase);
+
+            sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                    " ADD COLUMN " + LocationEntry.COLUMN_GEOHASH + " TEXT");
+            sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GEOHASH_INDEX);
+            fillLocationGeohashes(sqLiteDatabase);
+        }
+        if (oldVersion < 7) {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        }
+        if (oldVersion < 8) {
+            // Dates were normalized milliseconds before version 8
+            migrateDatesToJulianDays(sqLiteDatabase, WeatherEntry.TABLE_NAME,
+                    WeatherEntry.COLUMN_DATE);
+            migrateDatesToJulianDays(sqLiteDatabase, HistoryEntry.TABLE_NAME,
+                    HistoryEntry.COLUMN_DATE);
+            migrateDatesToJulianDays(sqLiteDatabase, TrendEntry.TABLE_NAME,
+                    TrendEntry.COLUMN_PERIOD_START);
+            // The packed forecasts hold the old dates too, the provider rebuilds them on demand
+            sqLiteDatabase.delete(PackedForecastEntry.TABLE_NAME, null, null);
+        }
+        if (oldVersion < 9) {
+            moveDescriptionsToWeatherConditions(sqLiteDatabase);
+        }
+    }
+
+    /*
+        Fills the weather condition table from the descriptions of the weather rows, then
+        rebuilds the weather table without them, as SQLite can't drop a column.
+     */
+    private void moveDescriptionsToWeatherConditions(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_WEATHER_CONDITION_TABLE);
+        // Any of the descriptions of a weather id will do, they only differ by language
+        db.execSQL("INSERT OR REPLACE INTO " + WeatherConditionEntry.TABLE_NAME + " (" +
+                WeatherConditionEntry.COLUMN_CONDITION_ID + ", " +
+                WeatherConditionEntry.COLUMN_SHORT_DESC + ") SELECT " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC +
+                " FROM " + WeatherEntry.TABLE_NAME);
+
+        final String oldTable = WeatherEntry.TABLE_NAME + "_old";
+        final String columns = WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+        db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE);
+        db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " (" + columns + ") SELECT " +
+                columns + " FROM " + oldTable);
+        // The index went along with the old table
+        db.execSQL("DROP TABLE " + oldTable);
+        db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+    }
+
+    /*
+        Rewrites a column of normalized millisecond dates as Julian days.  Each distinct date
+        is converted once, with the time zone rules of the device, and all its rows updated
+        together.
+     */
+    private void migrateDatesToJulianDays(SQLiteDatabase db, String table, String column) {
+        SQLiteStatement updateDate = db.compileStatement("UPDATE " + table +
+                " SET " + column + " = ? WHERE " + column + " = ?");
+        Cursor cursor = db.query(true, table, new String[]{column},
+                null, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long millis = cursor.getLong(0);
+                updateDate.bindLong(1, WeatherContract.getJulianDay(millis));
+                updateDate.bindLong(2, millis);
+                updateDate.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            updateDate.close();
+        }
+    }
+
+    private void fillLocationGeohashes(SQLiteDatabase db) {
+        SQLiteStatement updateGeohash = db.compileStatement("UPDATE " +
+                LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_GEOHASH + " = ? " +
+                " WHERE " + LocationEntry._ID + " = ?");
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID,
+                        LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                updateGeohash.bindString(1, GeoHash.encode(
+                        cursor.getDouble(1), cursor.getDouble(2), GeoHash.PRECISION));
+                updateGeohash.bindLong(2, cursor.getLong(0));
+                updateGeohash.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            updateGeohash.close();
+        }
+    }
+
+    private void dropLocationSearch(SQLiteDatabase db) {
+        for (String trigger : LOCATION_SEARCH_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + LocationSearchEntry.TABLE_NAME);
+    }
+
+    /*
+        Creates the location search index and fills it with the existing locations and the
+        bundled cities.
+     */
+    private void createLocationSearch(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LOCATION_SEARCH_TABLE);
+        for (String trigger : SQL_CREATE_LOCATION_SEARCH_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL("INSERT INTO " + LocationSearchEntry.TABLE_NAME + " (" +
+                LocationSearchEntry.COLUMN_SUGGESTION + ", " +
+                LocationSearchEntry.COLUMN_CITY_NAME + ", " +
+                LocationSearchEntry.COLUMN_LOC_KEY + ", " +
+                LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+                LocationSearchEntry.COLUMN_COORD_LONG + ") SELECT " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + " FROM " + LocationEntry.TABLE_NAME);
+
+        // One "City, CC;latitude;longitude" per line, the first field being also what
+        // openweathermap takes as a query
+        SQLiteStatement insertCity = db.compileStatement("INSERT INTO " +
+                LocationSearchEntry.TABLE_NAME + " (" +
+                LocationSearchEntry.COLUMN_SUGGESTION + ", " +
+                LocationSearchEntry.COLUMN_CITY_NAME + ", " +
+                LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+                LocationSearchEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    mContext.getResources().openRawResource(R.raw.cities), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] fields = line.split(";");
+                    String suggestion = fields[0].trim();
+                    int comma = suggestion.indexOf(',');
+                    insertCity.bindString(1, suggestion);
+                    insertCity.bindString(2,
+                            comma < 0 ? suggestion : suggestion.substring(0, comma).trim());
+                    insertCity.bindDouble(3, Double.parseDouble(fields[1]));
+                    insertCity.bindDouble(4, Double.parseDouble(fields[2]));
+                    insertCity.executeInsert();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // The search still works over the locations we have
+            Log.e(LOG_TAG, "Error reading the bundled cities", e);
+        } finally {
+            insertCity.close();
+        }
+    }
+
+    /**
+     * Gives the pages freed by deleted rows back to the file system and refreshes the statistics
+     * used by the query planner.  This can't run inside a transaction.
+     *
+     * @param db a writable database obtained from this helper
+     */
+    void compact(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // Files created before incremental vacuum was enabled need a single full VACUUM
+            // for the pragma set in onConfigure to take effect.
+            db.execSQL("VACUUM");
+        } else {
+            // incremental_vacuum frees one page per step, so the statement has to be run to
+            // completion, which filling the cursor does for us.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        db.execSQL("ANALYZE");
     }
 }
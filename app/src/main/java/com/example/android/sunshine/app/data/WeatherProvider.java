@@ -17,71 +17,308 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache();
+    private final ProviderStats mStats = new ProviderStats();
+    private NotificationScheduler mNotifications;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_MULTI = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_NEAR = 302;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int TREND = 500;
+    static final int TREND_WITH_LOCATION_AND_PERIOD = 501;
+    static final int DIAGNOSTICS_LATENCY = 600;
+    static final int DIAGNOSTICS_SLOW_OPERATIONS = 601;
+
+    // The query builders, selections and SQL below are package protected, like the match
+    // codes, so that TestQueryPlans can check the plan of every query the provider runs.
+    static final SQLiteQueryBuilder sWeatherQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sTrendByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sPackedForecastByLocationSettingQueryBuilder;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The descriptions of the weather rows live in the weather_condition table, and are joined
+    // back by every weather query so that short_desc reads like a column of the weather.
+    //  LEFT JOIN weather_condition ON weather.weather_id = weather_condition.condition_id
+    private static final String sWeatherConditionJoin = " LEFT JOIN " +
+            WeatherContract.WeatherConditionEntry.TABLE_NAME +
+            " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+            "." + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+            " = " + WeatherContract.WeatherConditionEntry.TABLE_NAME +
+            "." + WeatherContract.WeatherConditionEntry.COLUMN_CONDITION_ID;
 
     static{
+        //weather LEFT JOIN weather_condition ON ...
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(
+                WeatherContract.WeatherEntry.TABLE_NAME + sWeatherConditionJoin);
+
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
+        //  LEFT JOIN weather_condition ON ...
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID +
+                        sWeatherConditionJoin);
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //trend INNER JOIN location ON trend.location_id = location._id
+        sTrendByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sTrendByLocationSettingQueryBuilder.setTables(
+                WeatherContract.TrendEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.TrendEntry.TABLE_NAME +
+                        "." + WeatherContract.TrendEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //location LEFT JOIN packed_forecast ON packed_forecast.location_id = location._id
+        sPackedForecastByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sPackedForecastByLocationSettingQueryBuilder.setTables(
+                WeatherContract.LocationEntry.TABLE_NAME + " LEFT JOIN " +
+                        WeatherContract.PackedForecastEntry.TABLE_NAME +
+                        " ON " + WeatherContract.PackedForecastEntry.TABLE_NAME +
+                        "." + WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date > ?
+    static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    // Follows the location index, so the rows come out sorted without a sort step
+    static final String sLocationSettingAndDateSortOrder =
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND history.date >= ?
+    static final String sHistoryLocationSettingWithStartDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? ";
+
+    //location.location_setting = ? AND history.date > ?
+    static final String sHistoryLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_DATE + " > ? ";
+
+    //location.location_setting = ? AND trend.period = ?
+    static final String sTrendLocationSettingAndPeriodSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.TrendEntry.COLUMN_PERIOD + " = ? ";
+
+    // Recomputes the aggregates of one period of one location from the history.  The UNIQUE
+    // constraint of the trend table turns this into an update when the period already has a row.
+    static final String sRefreshTrendSql =
+            "INSERT INTO " + WeatherContract.TrendEntry.TABLE_NAME + " (" +
+                    WeatherContract.TrendEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.TrendEntry.COLUMN_PERIOD + ", " +
+                    WeatherContract.TrendEntry.COLUMN_PERIOD_START + ", " +
+                    WeatherContract.TrendEntry.COLUMN_DAY_COUNT + ", " +
+                    WeatherContract.TrendEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.TrendEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.TrendEntry.COLUMN_MEAN_TEMP + ") " +
+            "SELECT ?, ?, ?, COUNT(*), " +
+                    "MIN(" + WeatherContract.HistoryEntry.COLUMN_MIN_TEMP + "), " +
+                    "MAX(" + WeatherContract.HistoryEntry.COLUMN_MAX_TEMP + "), " +
+                    "AVG((" + WeatherContract.HistoryEntry.COLUMN_MIN_TEMP + " + " +
+                    WeatherContract.HistoryEntry.COLUMN_MAX_TEMP + ") / 2) " +
+            "FROM " + WeatherContract.HistoryEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " < ?";
+
+    // Keeps the description of a weather id.  Ids come with the same description on every
+    // sync, so this rewrites the same few rows.
+    private static final String sPutWeatherConditionSql =
+            "INSERT OR REPLACE INTO " + WeatherContract.WeatherConditionEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherConditionEntry.COLUMN_CONDITION_ID + ", " +
+                    WeatherContract.WeatherConditionEntry.COLUMN_SHORT_DESC + ") VALUES (?, ?)";
+
+    // Columns returned by METHOD_GET_DAY_WEATHER
+    static final String[] sDayWeatherColumns = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Prefix search over the location index, which for the locations we already have is
+    // known to work with openweathermap, so they come first.  A location can also be in the
+    // bundled cities, and then only its row with a location id is kept.
+    static final String sLocationSearchSql = "SELECT docid AS " +
+            WeatherContract.LocationSearchEntry._ID + ", " +
+            WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION + ", " +
+            WeatherContract.LocationSearchEntry.COLUMN_CITY_NAME + ", " +
+            "MAX(" + WeatherContract.LocationSearchEntry.COLUMN_LOC_KEY + ") AS " +
+            WeatherContract.LocationSearchEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.LocationSearchEntry.COLUMN_COORD_LAT + ", " +
+            WeatherContract.LocationSearchEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherContract.LocationSearchEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.LocationSearchEntry.TABLE_NAME + " MATCH ?" +
+            " GROUP BY " + WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION +
+            " COLLATE NOCASE" +
+            " ORDER BY " + WeatherContract.LocationSearchEntry.COLUMN_LOC_KEY + " IS NULL, " +
+            "length(" + WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION + "), " +
+            WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION +
+            " LIMIT ?";
+
+    // Enough to fill the suggestions under the location setting
+    private static final int DEFAULT_LOCATION_SEARCH_LIMIT = 8;
+
+    // Far enough to find a stand-in for a town without its own forecast yet
+    private static final double DEFAULT_NEAR_RADIUS_KM = 50;
+
+    static final String[] sLocationNearColumns = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.date < ?
+    private static final String sBeforeDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location._id NOT IN (SELECT location_id FROM weather)
+    //  AND location._id NOT IN (SELECT location_id FROM history) AND location.location_setting != ?
+    private static final String sOrphanLocationSelection =
+            WeatherContract.LocationEntry._ID + " NOT IN (SELECT " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + ") AND " +
+                    WeatherContract.LocationEntry._ID + " NOT IN (SELECT " +
+                    WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " FROM " +
+                    WeatherContract.HistoryEntry.TABLE_NAME + ") AND " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        int startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String afterDate =
+                getLongParameter(uri, WeatherContract.WeatherEntry.QUERY_PARAMETER_AFTER_DATE);
+        String limit = getLongParameter(uri, WeatherContract.WeatherEntry.QUERY_PARAMETER_LIMIT);
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
+        if (afterDate != null) {
+            selectionArgs = new String[]{locationSetting, afterDate};
+            selection = sLocationSettingAfterDateSelection;
+        } else if (startDate == 0) {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting, Integer.toString(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
+        if (afterDate != null || limit != null) {
+            // The only order in which the pages follow each other
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
@@ -89,25 +326,421 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        int date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                new String[]{locationSetting, Integer.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        Selects the weather of locationCount location settings between two dates, as in
+        location.location_setting IN (?, ...) AND date >= ? AND date <= ?
+     */
+    static String buildLocationSettingsAndDatesSelection(int locationCount) {
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry.TABLE_NAME)
+                .append('.').append(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                .append(" IN (");
+        for (int i = 0; i < locationCount; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        return selection.append(") AND ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ? AND ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" <= ? ")
+                .toString();
+    }
+
+    /*
+        The weather of several locations over a range of days, in a single query.  Without dates,
+        only today's weather is returned.
+     */
+    private Cursor getWeatherForLocationSettings(Uri uri, String[] projection, String sortOrder) {
+        List<String> locationSettings =
+                uri.getQueryParameters(WeatherContract.WeatherEntry.QUERY_PARAMETER_LOCATION);
+        if (locationSettings.isEmpty()) {
+            throw new IllegalArgumentException("Missing " +
+                    WeatherContract.WeatherEntry.QUERY_PARAMETER_LOCATION + " in " + uri);
+        }
+        String startDate = getLongParameter(uri, WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (startDate == null) {
+            startDate = Integer.toString(WeatherContract.getJulianDay(System.currentTimeMillis()));
+        }
+        String endDate =
+                getLongParameter(uri, WeatherContract.WeatherEntry.QUERY_PARAMETER_END_DATE);
+        if (endDate == null) {
+            endDate = startDate;
+        }
+
+        String[] selectionArgs = locationSettings.toArray(new String[locationSettings.size() + 2]);
+        selectionArgs[locationSettings.size()] = startDate;
+        selectionArgs[locationSettings.size() + 1] = endDate;
+
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                buildLocationSettingsAndDatesSelection(locationSettings.size()),
+                selectionArgs,
+                null,
+                null,
+                sortOrder != null ? sortOrder : sLocationSettingAndDateSortOrder
+        );
+    }
+
+    private Cursor searchLocations(Uri uri) {
+        String match = buildPrefixMatch(
+                uri.getQueryParameter(WeatherContract.LocationEntry.QUERY_PARAMETER_QUERY));
+        if (match.isEmpty()) {
+            return new MatrixCursor(new String[]{
+                    WeatherContract.LocationSearchEntry._ID,
+                    WeatherContract.LocationSearchEntry.COLUMN_SUGGESTION,
+                    WeatherContract.LocationSearchEntry.COLUMN_CITY_NAME,
+                    WeatherContract.LocationSearchEntry.COLUMN_LOC_KEY,
+                    WeatherContract.LocationSearchEntry.COLUMN_COORD_LAT,
+                    WeatherContract.LocationSearchEntry.COLUMN_COORD_LONG});
+        }
+        String limit = getLongParameter(uri, WeatherContract.LocationEntry.QUERY_PARAMETER_LIMIT);
+        return mOpenHelper.getReadableDatabase().rawQuery(sLocationSearchSql, new String[]{
+                match,
+                limit != null ? limit : Integer.toString(DEFAULT_LOCATION_SEARCH_LIMIT)});
+    }
+
+    /*
+        Finds the locations within a radius: the geohash index narrows the candidates down to a
+        few cells around the point, and the exact distance is checked here.  Locations written
+        without a geohash are always candidates, so they are never missed.
+     */
+    private Cursor getLocationsNear(Uri uri) {
+        double lat = getDoubleParameter(uri, WeatherContract.LocationEntry.QUERY_PARAMETER_LAT);
+        double lon = getDoubleParameter(uri, WeatherContract.LocationEntry.QUERY_PARAMETER_LON);
+        double radiusKm = uri.getQueryParameter(
+                WeatherContract.LocationEntry.QUERY_PARAMETER_RADIUS) != null
+                ? getDoubleParameter(uri, WeatherContract.LocationEntry.QUERY_PARAMETER_RADIUS)
+                : DEFAULT_NEAR_RADIUS_KM;
+
+        String selection = null;
+        String[] selectionArgs = null;
+        Set<String> cells = GeoHash.getCoveringCells(lat, lon, radiusKm);
+        if (cells != null) {
+            selection = buildGeohashSelection(cells.size());
+            selectionArgs = new String[cells.size() * 2];
+            int i = 0;
+            for (String cell : cells) {
+                selectionArgs[i++] = cell;
+                selectionArgs[i++] = cell + GeoHash.PREFIX_END;
+            }
+        }
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                sLocationNearColumns,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        ArrayList<Object[]> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                double distance = GeoHash.distanceKm(lat, lon, cursor.getDouble(3),
+                        cursor.getDouble(4));
+                if (distance <= radiusKm) {
+                    rows.add(new Object[]{cursor.getLong(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getDouble(3), cursor.getDouble(4),
+                            distance});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare((Double) lhs[5], (Double) rhs[5]);
+            }
+        });
+
+        String[] columns = Arrays.copyOf(sLocationNearColumns, sLocationNearColumns.length + 1);
+        columns[sLocationNearColumns.length] = WeatherContract.LocationEntry.COLUMN_DISTANCE;
+        MatrixCursor nearCursor = new MatrixCursor(columns, rows.size());
+        for (Object[] row : rows) {
+            nearCursor.addRow(row);
+        }
+        return nearCursor;
+    }
+
+    /*
+        Selects the locations in any of cellCount geohash prefix ranges, each taking the prefix
+        and the end of its range as arguments, or without a geohash.
+     */
+    static String buildGeohashSelection(int cellCount) {
+        StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < cellCount; i++) {
+            //(geohash >= ? AND geohash < ?) OR ...
+            selection.append('(')
+                    .append(WeatherContract.LocationEntry.COLUMN_GEOHASH).append(" >= ? AND ")
+                    .append(WeatherContract.LocationEntry.COLUMN_GEOHASH).append(" < ?) OR ");
+        }
+        return selection
+                .append(WeatherContract.LocationEntry.COLUMN_GEOHASH).append(" IS NULL")
+                .toString();
+    }
+
+    private static double getDoubleParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name + " in " + uri);
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+    }
+
+    /*
+        Returns a whole number query parameter as it is, or null if it is missing.  Anything else
+        is refused, as it ends up in the SQL of the query.
+     */
+    private static String getLongParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+        return value;
+    }
+
+    /*
+        Sets the geohash of a location being written with both of its coordinates.
+     */
+    private static void putGeohash(ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (lat != null && lon != null) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GEOHASH,
+                    GeoHash.encode(lat, lon, GeoHash.PRECISION));
+        }
+    }
+
+    /*
+        Turns what the user typed into an FTS query where every word is a prefix, so "new y"
+        matches "New York".  Anything that isn't a letter or a digit only separates words,
+        which also keeps the FTS operators out of the query.
+     */
+    static String buildPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        if (query != null) {
+            for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        int startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String afterDate =
+                getLongParameter(uri, WeatherContract.WeatherEntry.QUERY_PARAMETER_AFTER_DATE);
+        String limit = getLongParameter(uri, WeatherContract.WeatherEntry.QUERY_PARAMETER_LIMIT);
+
+        if (afterDate != null || limit != null) {
+            // The only order in which the pages follow each other
+            sortOrder = WeatherContract.HistoryEntry.TABLE_NAME + "." +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " ASC";
+        }
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                afterDate != null
+                        ? sHistoryLocationSettingAfterDateSelection
+                        : sHistoryLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, afterDate != null ? afterDate : Integer.toString(startDate)},
+                null,
+                null,
+                sortOrder,
+                limit
+        );
+    }
+
+    private Cursor getTrendByLocationSettingAndPeriod(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.TrendEntry.getLocationSettingFromUri(uri);
+        String period = WeatherContract.TrendEntry.getPeriodFromUri(uri);
+
+        return sTrendByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sTrendLocationSettingAndPeriodSelection,
+                new String[]{locationSetting, period},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /*
+        The per location weather URIs are the ones every screen, widget and the watch keep asking
+        for, so their results are served from mQueryCache when possible.
+     */
+    private Cursor getWeatherThroughCache(int match, Uri uri, String[] projection, String sortOrder) {
+        String cacheKey = WeatherQueryCache.buildKey(match, uri.toString(), projection, sortOrder);
+        Cursor cursor = mQueryCache.get(cacheKey);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            cursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        } else {
+            cursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+        return mQueryCache.put(cacheKey, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                generation, cursor);
+    }
+
+    /*
+        Returns the days touched by inserting the given weather values, as a map from location id
+        to dates, or null if that can't be told from the values.
+     */
+    private static HashMap<Long, HashSet<Integer>> getAffectedDays(ContentValues[] values) {
+        HashMap<Long, HashSet<Integer>> days = new HashMap<>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Integer date = value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                return null;
+            }
+            addAffectedDay(days, locationId, date);
+        }
+        return days;
+    }
+
+    /*
+        Returns a selection for updating or deleting weather rows.  A selection naming short_desc,
+        which lives in the weather_condition table, is run over the join instead and picks the
+        rows it matched by id.
+     */
+    private static String getWeatherSelection(String selection) {
+        if (selection == null
+                || !selection.contains(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)) {
+            return selection;
+        }
+        return WeatherContract.WeatherEntry._ID + " IN (SELECT " +
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID +
+                " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + sWeatherConditionJoin +
+                " WHERE " + selection + ")";
+    }
+
+    /*
+        Returns the days of the weather rows matching a selection, as a map from location id to
+        dates.  Has to be called before the rows are updated or deleted.
+     */
+    private static HashMap<Long, HashSet<Integer>> getAffectedDays(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        HashMap<Long, HashSet<Integer>> days = new HashMap<>();
+        Cursor cursor = db.query(true,
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null
+        );
+        try {
+            while (cursor.moveToNext()) {
+                addAffectedDay(days, cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private static void addAffectedDay(HashMap<Long, HashSet<Integer>> days, long locationId, int date) {
+        HashSet<Integer> dates = days.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<>();
+            days.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    /*
+        Called once a weather write is committed.  Drops the cached results of the locations that
+        were written to and notifies the weather/{location}/{date} URI of every affected day, so
+        that only the observers of those days (and of the lists containing them) are woken up.
+        With null days, everything is invalidated and the base weather URI is notified.
+     */
+    private void notifyWeatherChanged(HashMap<Long, HashSet<Integer>> days) {
+        if (days != null && days.isEmpty()) {
+            return;
+        }
+        HashMap<Long, String> locationSettings =
+                days == null ? null : getLocationSettings(days.keySet());
+        if (locationSettings == null || locationSettings.size() < days.size()) {
+            mQueryCache.invalidateAll();
+            mNotifications.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            return;
+        }
+
+        for (Map.Entry<Long, HashSet<Integer>> entry : days.entrySet()) {
+            String locationSetting = locationSettings.get(entry.getKey());
+            mQueryCache.invalidate(locationSetting);
+            for (int date : entry.getValue()) {
+                mNotifications.notifyChange(
+                        WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date));
+            }
+        }
+    }
+
+    private HashMap<Long, String> getLocationSettings(Set<Long> locationIds) {
+        HashMap<Long, String> locationSettings = new HashMap<>();
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " IN (" + TextUtils.join(",", locationIds) + ")",
+                null,
+                null,
+                null,
+                null
+        );
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -126,10 +759,27 @@ public class WeatherProvider extends ContentProvider {
 
         // For each type of URI you want to add, create a corresponding code.
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        // Before "weather/*", which would take "multi" for a location setting otherwise
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_MULTI, WEATHER_MULTI);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_SEARCH, LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAR, LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_TREND, TREND);
+        matcher.addURI(authority, WeatherContract.PATH_TREND + "/*/*", TREND_WITH_LOCATION_AND_PERIOD);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS + "/" +
+                WeatherContract.DiagnosticsEntry.PATH_LATENCY, DIAGNOSTICS_LATENCY);
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS + "/" +
+                WeatherContract.DiagnosticsEntry.PATH_SLOW_OPERATIONS, DIAGNOSTICS_SLOW_OPERATIONS);
         return matcher;
     }
 
@@ -140,9 +790,57 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifications = new NotificationScheduler(getContext().getContentResolver(),
+                getContext().getResources().getInteger(R.integer.provider_notification_interval_millis));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Stay out of the way of the UI thread while the app starts
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warmUp();
+            }
+        }, "WeatherProviderWarmUp").start();
         return true;
     }
 
+    /*
+        onCreate runs while the process starts, so the database used to be opened by whatever
+        queried first, usually the forecast loader of MainActivity.  Opening it here instead,
+        and reading the forecast of the preferred location once, takes the schema check, any
+        repacking and the first page reads off that path.  A query arriving in the meantime
+        simply waits for the open to finish.
+     */
+    private void warmUp() {
+        Trace.beginSection("WeatherProvider.warmUp");
+        final long start = SystemClock.uptimeMillis();
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            String locationSetting = Utility.getPreferredLocation(getContext());
+            Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(db,
+                    null,
+                    sLocationSettingWithStartDateSelection,
+                    new String[]{locationSetting,
+                            Integer.toString(WeatherContract.getJulianDay(System.currentTimeMillis()))},
+                    null,
+                    null,
+                    null
+            );
+            try {
+                // Filling the window reads every page the forecast needs
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            getPackedForecast(locationSetting);
+        } catch (android.database.SQLException e) {
+            // The first real query will run into it again and report it
+            Log.e(LOG_TAG, "Error warming up the database", e);
+        } finally {
+            Trace.endSection();
+        }
+        Log.d(LOG_TAG, "Database warmed up in " + (SystemClock.uptimeMillis() - start) + "ms");
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -161,9 +859,21 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
+            case WEATHER_MULTI:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_SEARCH:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case TREND:
+            case TREND_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.TrendEntry.CONTENT_TYPE;
+            case DIAGNOSTICS_LATENCY:
+            case DIAGNOSTICS_SLOW_OPERATIONS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,23 +884,25 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final long start = ProviderStats.start();
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherThroughCache(match, uri, projection, sortOrder);
+                break;
+            }
+            // "weather/multi?location=&date=&end_date="
+            case WEATHER_MULTI: {
+                retCursor = getWeatherForLocationSettings(uri, projection, sortOrder);
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                retCursor = sWeatherQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -213,11 +925,72 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/search?q="
+            case LOCATION_SEARCH: {
+                retCursor = searchLocations(uri);
+                break;
+            }
+            // "location/near?lat=&lon=&radius="
+            case LOCATION_NEAR: {
+                retCursor = getLocationsNear(uri);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "trend"
+            case TREND: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.TrendEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "trend/*/*"
+            case TREND_WITH_LOCATION_AND_PERIOD: {
+                retCursor = getTrendByLocationSettingAndPeriod(uri, projection, sortOrder);
+                break;
+            }
+            // "diagnostics/latency"
+            case DIAGNOSTICS_LATENCY: {
+                retCursor = mStats.getLatencies();
+                break;
+            }
+            // "diagnostics/slow_operations"
+            case DIAGNOSTICS_SLOW_OPERATIONS: {
+                retCursor = mStats.getSlowOperations();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Changes are notified on the URIs of the locations, which are all under the base
+        // weather URI but not under weather/multi
+        retCursor.setNotificationUri(getContext().getContentResolver(),
+                match == WEATHER_MULTI ? WeatherContract.WeatherEntry.CONTENT_URI : uri);
+        // Counting the rows runs the query to the end, so the time recorded is what it costs
+        mStats.recordQuery(mOpenHelper, match, uri, start, retCursor.getCount());
         return retCursor;
     }
 
@@ -226,14 +999,26 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long start = ProviderStats.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            putWeatherCondition(db, null, values));
+                    if ( _id > 0 ) {
+                        archiveForecast(db, new ContentValues[]{values});
+                        repackForecasts(db, getAffectedDays(new ContentValues[]{values}));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,6 +1026,7 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
+                putGeohash(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
@@ -251,58 +1037,116 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (match == WEATHER) {
+            notifyWeatherChanged(getAffectedDays(new ContentValues[]{values}));
+            notifyHistoryChanged();
+        } else {
+            mQueryCache.invalidateAll();
+            mNotifications.notifyChange(uri);
+        }
+        mStats.recordWrite(ProviderStats.OPERATION_INSERT, match, uri, null, start, 1);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = ProviderStats.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        HashMap<Long, HashSet<Integer>> affectedDays = null;
+        // Deleting everything is reported on the base URI
+        boolean deleteAll = null == selection;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                selection = getWeatherSelection(selection);
+                db.beginTransaction();
+                try {
+                    if ( !deleteAll ) {
+                        affectedDays = getAffectedDays(db, selection, selectionArgs);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    repackForecasts(db, affectedDays);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case TREND:
+                rowsDeleted = db.delete(
+                        WeatherContract.TrendEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == WEATHER) {
+                notifyWeatherChanged(affectedDays);
+            } else {
+                if (match == LOCATION) {
+                    mQueryCache.invalidateAll();
+                }
+                mNotifications.notifyChange(uri);
+            }
         }
+        mStats.recordWrite(ProviderStats.OPERATION_DELETE, match, uri, selection, start,
+                rowsDeleted);
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
-        }
-    }
-
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = ProviderStats.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
+        HashMap<Long, HashSet<Integer>> affectedDays = null;
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // Rows moved to another day or location would have to be reported on both
+                // sides, the base URI covers that.
+                // A description is shared by every row with the same weather id, so changing
+                // one can show in any location.
+                selection = getWeatherSelection(selection);
+                db.beginTransaction();
+                try {
+                    if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            && !values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                            && !values.containsKey(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)) {
+                        affectedDays = getAffectedDays(db, selection, selectionArgs);
+                    }
+                    ContentValues weatherValues =
+                            updateWeatherCondition(db, values, selection, selectionArgs);
+                    if (weatherValues.size() != 0) {
+                        rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                                weatherValues, selection, selectionArgs);
+                    } else {
+                        // Only the description was written, the rows themselves are unchanged
+                        rowsUpdated = (int) DatabaseUtils.queryNumEntries(db,
+                                WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    }
+                    repackForecasts(db, affectedDays);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
+                putGeohash(values);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
@@ -310,38 +1154,695 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == WEATHER) {
+                notifyWeatherChanged(affectedDays);
+            } else {
+                mQueryCache.invalidateAll();
+                mNotifications.notifyChange(uri);
+            }
         }
+        mStats.recordWrite(ProviderStats.OPERATION_UPDATE, match, uri, selection, start,
+                rowsUpdated);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = ProviderStats.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                HashMap<Long, HashSet<Integer>> affectedDays;
+                SQLiteStatement putCondition = db.compileStatement(sPutWeatherConditionSql);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                                putWeatherCondition(db, putCondition, value));
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
+                    archiveForecast(db, values);
+                    affectedDays = getAffectedDays(values);
+                    repackForecasts(db, affectedDays);
                     db.setTransactionSuccessful();
                 } finally {
+                    putCondition.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyWeatherChanged(affectedDays);
+                notifyHistoryChanged();
+                mStats.recordWrite(ProviderStats.OPERATION_BULK_INSERT, match, uri, null, start,
+                        returnCount);
                 return returnCount;
+            case LOCATION: {
+                // One transaction and one notification for the whole list, instead of one of
+                // each per location
+                int upsertCount = 0;
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        putGeohash(value);
+                        if (upsertLocation(db, value)) {
+                            upsertCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (upsertCount != 0) {
+                    mQueryCache.invalidateAll();
+                    mNotifications.notifyChange(uri);
+                }
+                mStats.recordWrite(ProviderStats.OPERATION_BULK_INSERT, match, uri, null, start,
+                        upsertCount);
+                return upsertCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Writes a location over the one with the same location setting, if any.  It is updated in
+        place rather than replaced, so it keeps its id and the weather and history attached to it.
+        Returns whether a row was written.
+     */
+    private static boolean upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting != null && db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                sLocationSettingSelection, new String[]{locationSetting}) != 0) {
+            return true;
+        }
+        return db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values) != -1;
+    }
+
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT " + WeatherContract.LocationEntry._ID +
+                        " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                        " WHERE " + sLocationSettingSelection,
+                new String[]{locationSetting});
+    }
+
+    /*
+        Writes the description of an update to the weather_condition table, under the weather id
+        the update sets, or else under the weather ids of the rows it matches.  Returns the values
+        left for the weather table, which may be none.
+     */
+    private static ContentValues updateWeatherCondition(SQLiteDatabase db, ContentValues values,
+                                                        String selection, String[] selectionArgs) {
+        if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)
+                || values.containsKey(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)) {
+            return putWeatherCondition(db, null, values);
+        }
+        ContentValues weatherValues = new ContentValues(values);
+        String description = weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        weatherValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        if (description == null) {
+            return weatherValues;
+        }
+        SQLiteStatement putCondition = db.compileStatement(sPutWeatherConditionSql);
+        Cursor cursor = db.query(true,
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null
+        );
+        try {
+            while (cursor.moveToNext()) {
+                putCondition.bindLong(1, cursor.getLong(0));
+                putCondition.bindString(2, description);
+                putCondition.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            putCondition.close();
+        }
+        return weatherValues;
+    }
+
+    /*
+        Returns the values to write to the weather table, which has no description: it goes to
+        the weather_condition table under the weather id instead, once per id.  A description
+        given without a weather id can't be kept.  The caller's values are left untouched, and
+        putCondition is compiled here when null.
+     */
+    private static ContentValues putWeatherCondition(SQLiteDatabase db, SQLiteStatement putCondition,
+                                                     ContentValues values) {
+        if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)) {
+            return values;
+        }
+        ContentValues weatherValues = new ContentValues(values);
+        String description = weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        weatherValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        Integer weatherId = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId == null || description == null) {
+            return weatherValues;
+        }
+        SQLiteStatement statement = putCondition != null
+                ? putCondition : db.compileStatement(sPutWeatherConditionSql);
+        try {
+            statement.bindLong(1, weatherId);
+            statement.bindString(2, description);
+            statement.executeInsert();
+        } finally {
+            if (putCondition == null) {
+                statement.close();
+            }
+        }
+        return weatherValues;
+    }
+
+    /*
+        Copies freshly written forecasts into the history and brings the weekly and monthly
+        trends they fall into up to date.  Must be called inside the transaction that wrote them,
+        so the history and the trends never disagree.  Only the periods touched by the batch are
+        recomputed, each one from at most a month of history rows found through the
+        (location_id, date) index, so the cost depends on the size of the batch and not on how
+        much history has piled up.
+     */
+    private void archiveForecast(SQLiteDatabase db, ContentValues[] values) {
+        HashSet<TrendPeriod> touchedPeriods = new HashSet<>();
+        for (ContentValues value : values) {
+            ContentValues historyValues = new ContentValues(value);
+            historyValues.remove(WeatherContract.WeatherEntry._ID);
+            historyValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+            if (db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, historyValues) == -1) {
+                continue;
+            }
+            long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            int date = value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+            touchedPeriods.add(new TrendPeriod(locationId, WeatherContract.TrendEntry.PERIOD_WEEK, date));
+            touchedPeriods.add(new TrendPeriod(locationId, WeatherContract.TrendEntry.PERIOD_MONTH, date));
+        }
+        refreshTrends(db, touchedPeriods);
+    }
+
+    private static void refreshTrends(SQLiteDatabase db, HashSet<TrendPeriod> touchedPeriods) {
+        if (touchedPeriods.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement refreshTrend = db.compileStatement(sRefreshTrendSql);
+        try {
+            for (TrendPeriod period : touchedPeriods) {
+                refreshTrend.bindLong(1, period.locationId);
+                refreshTrend.bindString(2, period.period);
+                refreshTrend.bindLong(3, period.start);
+                refreshTrend.bindLong(4, period.locationId);
+                refreshTrend.bindLong(5, period.start);
+                refreshTrend.bindLong(6, period.end);
+                refreshTrend.executeInsert();
+            }
+        } finally {
+            refreshTrend.close();
+        }
+    }
+
+    /*
+        Rewrites the packed forecast of the locations that have affected days, or of every
+        location when affectedDays is null.  Must be called inside the transaction that changed
+        the weather rows, so the packed copy never disagrees with them.
+     */
+    private void repackForecasts(SQLiteDatabase db, HashMap<Long, HashSet<Integer>> affectedDays) {
+        Set<Long> locationIds;
+        if (affectedDays != null) {
+            locationIds = affectedDays.keySet();
+        } else {
+            db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME, null, null);
+            locationIds = new HashSet<>();
+            Cursor cursor = db.query(true,
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null
+            );
+            try {
+                while (cursor.moveToNext()) {
+                    locationIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        for (long locationId : locationIds) {
+            repackForecast(db, locationId);
+        }
+    }
+
+    /*
+        Packs the weather rows of one location into its packed forecast, and returns the blob,
+        or null if the location has no weather left.
+     */
+    private static byte[] repackForecast(SQLiteDatabase db, long locationId) {
+        String[] locationIdArgs = new String[]{Long.toString(locationId)};
+        Cursor cursor = sWeatherQueryBuilder.query(db,
+                PackedForecast.PACK_COLUMNS,
+                sLocationIdSelection,
+                locationIdArgs,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        try {
+            if (cursor.getCount() == 0) {
+                db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME,
+                        sLocationIdSelection, locationIdArgs);
+                return null;
+            }
+            byte[] forecast = PackedForecast.pack(cursor);
+            ContentValues packedValues = new ContentValues();
+            packedValues.put(WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY, locationId);
+            packedValues.put(WeatherContract.PackedForecastEntry.COLUMN_FORECAST, forecast);
+            db.replace(WeatherContract.PackedForecastEntry.TABLE_NAME, null, packedValues);
+            return forecast;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void notifyHistoryChanged() {
+        mNotifications.notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        mNotifications.notifyChange(WeatherContract.TrendEntry.CONTENT_URI);
+    }
+
+    /*
+        A week or a month of one location, as written to the trend table.
+     */
+    private static final class TrendPeriod {
+        final long locationId;
+        final String period;
+        final int start;
+        final int end;
+
+        TrendPeriod(long locationId, String period, int date) {
+            this.locationId = locationId;
+            this.period = period;
+            this.start = WeatherContract.TrendEntry.getPeriodStart(period, date);
+            this.end = WeatherContract.TrendEntry.getNextPeriodStart(period, date);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TrendPeriod)) return false;
+            TrendPeriod other = (TrendPeriod) o;
+            return locationId == other.locationId && start == other.start
+                    && period.equals(other.period);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (int) (locationId ^ (locationId >>> 32)) + period.hashCode())
+                    + start;
+        }
+    }
+
+    /*
+        The whole batch is committed as one transaction, and observers hear about it once, when
+        it is done, rather than after each operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mNotifications.beginBatch();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            mNotifications.endBatch();
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance(arg);
+        } else if (WeatherContract.METHOD_GET_DAY_WEATHER.equals(method)) {
+            return getDayWeather(arg, extras);
+        } else if (WeatherContract.METHOD_GET_PACKED_FORECAST.equals(method)) {
+            return getPackedForecast(arg);
+        } else if (WeatherContract.METHOD_EXPORT_ARCHIVE.equals(method)) {
+            return exportArchive(extras);
+        } else if (WeatherContract.METHOD_IMPORT_ARCHIVE.equals(method)) {
+            return importArchive(extras);
+        } else if (WeatherContract.METHOD_COMMIT_FORECAST.equals(method)) {
+            return commitForecast(arg, extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Reads a single day of weather straight into a Bundle.  The caller gets no Cursor to
+        manage, and across processes no CursorWindow has to be set up for one row.
+     */
+    private Bundle getDayWeather(String locationSetting, Bundle extras) {
+        int date = extras != null && extras.containsKey(WeatherContract.KEY_DATE)
+                ? extras.getInt(WeatherContract.KEY_DATE)
+                : WeatherContract.getJulianDay(System.currentTimeMillis());
+        boolean exactDate = extras != null && extras.getBoolean(WeatherContract.KEY_EXACT_DATE);
+
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                sDayWeatherColumns,
+                exactDate ? sLocationSettingAndDaySelection : sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, Integer.toString(date)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                "1"
+        );
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getInt(0));
+            result.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+            result.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(3));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(4));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, cursor.getDouble(5));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE, cursor.getDouble(6));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, cursor.getDouble(7));
+            result.putDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES, cursor.getDouble(8));
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Reads the packed forecast of a location: a single row and a single column, instead of a
+        join returning a row per day.  Blobs that are missing, which happens right after the
+        upgrade that introduced them, or that were packed with an older layout are rebuilt here.
+     */
+    private Bundle getPackedForecast(String locationSetting) {
+        Cursor cursor = sPackedForecastByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                new String[]{WeatherContract.LocationEntry.TABLE_NAME + "." +
+                        WeatherContract.LocationEntry._ID,
+                        WeatherContract.PackedForecastEntry.COLUMN_FORECAST},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null
+        );
+        long locationId;
+        byte[] forecast;
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            locationId = cursor.getLong(0);
+            forecast = cursor.getBlob(1);
+        } finally {
+            cursor.close();
+        }
+
+        if (forecast == null || forecast[0] != PackedForecast.VERSION) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                forecast = repackForecast(db, locationId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (forecast == null) {
+                return null;
+            }
+        }
+        Bundle result = new Bundle();
+        result.putByteArray(WeatherContract.KEY_PACKED_FORECAST, forecast);
+        return result;
+    }
+
+    /*
+        A sync used to add the location, bulk insert the days and delete the old ones as three
+        separate writes, each with its own commit, and a crash in between left them half done.
+        Here it all goes in one transaction, and observers are notified once it is committed.
+     */
+    private Bundle commitForecast(String locationSetting, Bundle extras) {
+        ContentValues location = extras == null
+                ? null : (ContentValues) extras.getParcelable(WeatherContract.KEY_LOCATION);
+        Parcelable[] forecast = extras == null
+                ? null : extras.getParcelableArray(WeatherContract.KEY_FORECAST);
+        if (locationSetting == null || location == null || forecast == null
+                || !extras.containsKey(WeatherContract.KEY_DATE)) {
+            throw new IllegalArgumentException(
+                    "Committing a forecast needs a location setting, a location, days and a date");
+        }
+        location = new ContentValues(location);
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        putGeohash(location);
+        String[] purgeArgs = new String[]{Integer.toString(extras.getInt(WeatherContract.KEY_DATE))};
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentValues[] values = new ContentValues[forecast.length];
+        HashMap<Long, HashSet<Integer>> affectedDays;
+        int weatherDeleted;
+        SQLiteStatement putCondition = db.compileStatement(sPutWeatherConditionSql);
+        db.beginTransaction();
+        try {
+            if (!upsertLocation(db, location)) {
+                throw new android.database.SQLException(
+                        "Failed to write location " + locationSetting);
+            }
+            long locationId = getLocationId(db, locationSetting);
+            for (int i = 0; i < forecast.length; i++) {
+                values[i] = new ContentValues((ContentValues) forecast[i]);
+                values[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                db.insertOrThrow(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        putWeatherCondition(db, putCondition, values[i]));
+            }
+            archiveForecast(db, values);
+
+            affectedDays = getAffectedDays(db, sBeforeDateSelection, purgeArgs);
+            weatherDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    sBeforeDateSelection, purgeArgs);
+            for (ContentValues value : values) {
+                addAffectedDay(affectedDays, locationId,
+                        value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE));
+            }
+            repackForecasts(db, affectedDays);
+            db.setTransactionSuccessful();
+        } finally {
+            putCondition.close();
+            db.endTransaction();
+        }
+
+        // The location row may have changed, and cached forecasts carry its columns
+        mQueryCache.invalidateAll();
+        mNotifications.notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        notifyWeatherChanged(affectedDays);
+        notifyHistoryChanged();
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_WEATHER_COUNT, values.length);
+        result.putInt(WeatherContract.KEY_WEATHER_DELETED, weatherDeleted);
+        return result;
+    }
+
+    /*
+        Encodes the archive inside a transaction, so a sync running meanwhile can't leave it
+        with half of its changes.  It is built in memory, where it takes a few hundred KB even
+        for years of history, and only written out once the transaction is over.  Otherwise
+        the whole provider would wait for whoever reads the other end of the descriptor.
+     */
+    private Bundle exportArchive(Bundle extras) {
+        ParcelFileDescriptor file = getArchiveFile(extras);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        WeatherArchive.Counts counts;
+        db.beginTransaction();
+        try {
+            counts = WeatherArchive.write(db, new DataOutputStream(archive));
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error encoding the weather archive", e);
+            return null;
+        } finally {
+            db.endTransaction();
+        }
+
+        // Closing the stream leaves the descriptor itself open, it belongs to the caller
+        FileOutputStream out = new FileOutputStream(file.getFileDescriptor());
+        try {
+            archive.writeTo(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the weather archive", e);
+            return null;
+        } finally {
+            try {
+                out.close();
+            } catch (final IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+        return buildArchiveResult(counts);
+    }
+
+    /*
+        Merges an archive into the database as it is read, in a single transaction.  Locations
+        are matched on their setting, and the archived days replace the ones already there, as
+        a sync would.  Trends and packed forecasts of what was imported are rebuilt at the end.
+     */
+    private Bundle importArchive(Bundle extras) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getArchiveFile(extras).getFileDescriptor())));
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteStatement putCondition = db.compileStatement(sPutWeatherConditionSql);
+        final HashMap<Long, HashSet<Integer>> weatherDays = new HashMap<>();
+        final HashSet<TrendPeriod> touchedPeriods = new HashSet<>();
+        WeatherArchive.Counts counts;
+        db.beginTransaction();
+        try {
+            counts = WeatherArchive.read(in, new WeatherArchive.Sink() {
+                @Override
+                public long putLocation(ContentValues values) {
+                    putGeohash(values);
+                    String locationSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (!upsertLocation(db, values)) {
+                        throw new android.database.SQLException(
+                                "Failed to import location " + locationSetting);
+                    }
+                    return getLocationId(db, locationSetting);
+                }
+
+                @Override
+                public void putCondition(int weatherId, String shortDesc) {
+                    putCondition.bindLong(1, weatherId);
+                    putCondition.bindString(2, shortDesc);
+                    putCondition.executeInsert();
+                }
+
+                @Override
+                public void putWeather(ContentValues values) {
+                    db.insertOrThrow(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    addAffectedDay(weatherDays,
+                            values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                            values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE));
+                }
+
+                @Override
+                public void putHistory(ContentValues values) {
+                    db.insertOrThrow(WeatherContract.HistoryEntry.TABLE_NAME, null, values);
+                    long locationId = values.getAsLong(WeatherContract.HistoryEntry.COLUMN_LOC_KEY);
+                    int date = values.getAsInteger(WeatherContract.HistoryEntry.COLUMN_DATE);
+                    touchedPeriods.add(new TrendPeriod(
+                            locationId, WeatherContract.TrendEntry.PERIOD_WEEK, date));
+                    touchedPeriods.add(new TrendPeriod(
+                            locationId, WeatherContract.TrendEntry.PERIOD_MONTH, date));
+                }
+            });
+            refreshTrends(db, touchedPeriods);
+            repackForecasts(db, weatherDays);
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the weather archive", e);
+            return null;
+        } finally {
+            putCondition.close();
+            db.endTransaction();
+            // As above, the descriptor stays open for the caller
+            try {
+                in.close();
+            } catch (final IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+
+        mQueryCache.invalidateAll();
+        if (counts.locations != 0) {
+            mNotifications.notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        notifyWeatherChanged(weatherDays);
+        if (!touchedPeriods.isEmpty()) {
+            notifyHistoryChanged();
+        }
+        return buildArchiveResult(counts);
+    }
+
+    private static ParcelFileDescriptor getArchiveFile(Bundle extras) {
+        ParcelFileDescriptor file = extras == null
+                ? null : (ParcelFileDescriptor) extras.getParcelable(WeatherContract.KEY_ARCHIVE_FILE);
+        if (file == null) {
+            throw new IllegalArgumentException("No file descriptor under KEY_ARCHIVE_FILE");
+        }
+        return file;
+    }
+
+    private static Bundle buildArchiveResult(WeatherArchive.Counts counts) {
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_LOCATION_COUNT, counts.locations);
+        result.putInt(WeatherContract.KEY_WEATHER_COUNT, counts.weather);
+        result.putInt(WeatherContract.KEY_HISTORY_COUNT, counts.history);
+        return result;
+    }
+
+    /*
+        Drops every weather row older than today, whatever its location, then every location
+        that no longer has weather attached to it (except keepLocationSetting, which the sync
+        may be about to fill), and finally compacts the file.
+     */
+    private Bundle runMaintenance(String keepLocationSetting) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int today = WeatherContract.getJulianDay(System.currentTimeMillis());
+
+        int weatherDeleted;
+        int locationsDeleted;
+        db.beginTransaction();
+        try {
+            weatherDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    sBeforeDateSelection, new String[]{Integer.toString(today)});
+            locationsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                    sOrphanLocationSelection,
+                    new String[]{keepLocationSetting == null ? "" : keepLocationSetting});
+            if (weatherDeleted != 0 || locationsDeleted != 0) {
+                repackForecasts(db, null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mOpenHelper.compact(db);
+
+        if (weatherDeleted != 0 || locationsDeleted != 0) {
+            mQueryCache.invalidateAll();
+        }
+        if (weatherDeleted != 0) {
+            mNotifications.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (locationsDeleted != 0) {
+            mNotifications.notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_WEATHER_DELETED, weatherDeleted);
+        result.putInt(WeatherContract.KEY_LOCATIONS_DELETED, locationsDeleted);
+        return result;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Bounded cache of query results for the WeatherProvider.  Results are stored as plain row
+ * arrays and every hit gets a fresh cursor over them, so cached data can't be changed or closed
+ * by the callers.
+ *
+ * Entries are tagged with the location setting they were read for, so a write only has to
+ * invalidate the location it touched.  A query that raced with a write is not stored: the
+ * generation taken before querying must still be current when the result is put.
+ */
+class WeatherQueryCache {
+
+    // Bound on the number of values held, which for our narrow tables is a good proxy for
+    // memory.  Two weeks of forecast with every column is about 200 of them.
+    private static final int MAX_CACHED_VALUES = 4096;
+
+    private static final class Snapshot {
+        final String locationSetting;
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Snapshot(String locationSetting, String[] columnNames, Object[][] rows) {
+            this.locationSetting = locationSetting;
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+    }
+
+    private final LruCache<String, Snapshot> mSnapshots =
+            new LruCache<String, Snapshot>(MAX_CACHED_VALUES) {
+                @Override
+                protected int sizeOf(String key, Snapshot snapshot) {
+                    return 1 + snapshot.rows.length * snapshot.columnNames.length;
+                }
+            };
+
+    private long mGeneration;
+
+    static String buildKey(int match, String uri, String[] projection, String sortOrder) {
+        return match + "|" + uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a query that is about to run.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns a new cursor over the cached result for a key, or null if there is none.
+     */
+    Cursor get(String key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        return newCursor(snapshot.columnNames, snapshot.rows);
+    }
+
+    /**
+     * Copies a query result into the cache, closing it, and returns a cursor over the copy.
+     *
+     * @param key the key built by buildKey
+     * @param locationSetting the location the result was read for
+     * @param generation the value of getGeneration() from before the query ran
+     * @param cursor the query result
+     */
+    Cursor put(String key, String locationSetting, long generation, Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        try {
+            int columnCount = columnNames.length;
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    row[column] = getValue(cursor, column);
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Snapshot snapshot = new Snapshot(locationSetting, columnNames, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+        return newCursor(columnNames, rows);
+    }
+
+    /**
+     * Drops the cached results of one location.  Must be called once the write is committed.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        for (Map.Entry<String, Snapshot> entry : mSnapshots.snapshot().entrySet()) {
+            if (entry.getValue().locationSetting.equals(locationSetting)) {
+                mSnapshots.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops every cached result.  Must be called once the write is committed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSnapshots.evictAll();
+    }
+
+    private static Cursor newCursor(String[] columnNames, Object[][] rows) {
+        MatrixCursor cursor = new MatrixCursor(columnNames, rows.length);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Periodically enforces the retention policy of the weather database and compacts it.  The job
+ * only runs while the device is idle and charging, since VACUUM and ANALYZE are I/O heavy.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineMaintenanceService extends JobService {
+    private static final String LOG_TAG = SunshineMaintenanceService.class.getSimpleName();
+    private static final int MAINTENANCE_JOB_ID = 3005;
+    // Once a day is plenty: the sync only ever adds two weeks worth of rows per location.
+    private static final long MAINTENANCE_INTERVAL = 1000 * 60 * 60 * 24;
+
+    private AsyncTask<Void, Void, Bundle> mMaintenanceTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Context context = getApplicationContext();
+        mMaintenanceTask = new AsyncTask<Void, Void, Bundle>() {
+            @Override
+            protected Bundle doInBackground(Void... voids) {
+                return context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_RUN_MAINTENANCE,
+                        Utility.getPreferredLocation(context),
+                        null);
+            }
+
+            @Override
+            protected void onPostExecute(Bundle result) {
+                if (result != null) {
+                    Log.d(LOG_TAG, "Maintenance complete. "
+                            + result.getInt(WeatherContract.KEY_WEATHER_DELETED) + " weather and "
+                            + result.getInt(WeatherContract.KEY_LOCATIONS_DELETED) + " location rows deleted");
+                }
+                jobFinished(params, false);
+            }
+        };
+        mMaintenanceTask.execute();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device left its idle/charging window.  The provider work is transactional, so
+        // it's safe to abandon it and try again in the next window.
+        if (mMaintenanceTask != null) {
+            mMaintenanceTask.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to schedule the maintenance job, unless it is already scheduled.
+     * @param context The context used to access the job scheduler
+     */
+    public static void scheduleMaintenance(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == MAINTENANCE_JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(MAINTENANCE_JOB_ID,
+                new ComponentName(context, SunshineMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(MAINTENANCE_INTERVAL)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.common;
+
+/**
+ * The kind of weather each OpenWeatherMap condition code is shown as, shared by the phone and
+ * the watch.  Codes go from 0 to 999, so the kinds are kept in a table indexed by code.
+ *
+ * Each module maps the kinds to its own icons and art with an array indexed by kind.
+ */
+public final class WeatherConditions {
+
+    // The kinds of weather we have graphics for
+    public static final int NONE = 0;
+    public static final int STORM = 1;
+    public static final int LIGHT_RAIN = 2;
+    public static final int RAIN = 3;
+    public static final int SNOW = 4;
+    public static final int FOG = 5;
+    public static final int CLEAR = 6;
+    public static final int LIGHT_CLOUDS = 7;
+    public static final int CLOUDS = 8;
+    // Drawn as a storm, but has a photo of its own
+    public static final int TORNADO = 9;
+    public static final int KIND_COUNT = 10;
+
+    public static final int MAX_WEATHER_ID = 999;
+
+    // Names of the kinds in the art pack URLs, indexed by kind
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds",
+            "storm",
+    };
+
+    // Images for the Muzei source, indexed by kind
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+    };
+
+    private static final byte[] sKinds = new byte[MAX_WEATHER_ID + 1];
+
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        setKind(200, 232, STORM);
+        setKind(300, 321, LIGHT_RAIN);
+        setKind(500, 504, RAIN);
+        setKind(511, 511, SNOW);
+        setKind(520, 531, RAIN);
+        setKind(600, 622, SNOW);
+        // 761 (dust) has always been shown as fog
+        setKind(701, 761, FOG);
+        setKind(781, 781, TORNADO);
+        setKind(800, 800, CLEAR);
+        setKind(801, 801, LIGHT_CLOUDS);
+        setKind(802, 804, CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void setKind(int firstWeatherId, int lastWeatherId, int kind) {
+        for (int weatherId = firstWeatherId; weatherId <= lastWeatherId; weatherId++) {
+            sKinds[weatherId] = (byte) kind;
+        }
+    }
+
+    /**
+     * Returns the kind of weather for a condition code, or NONE if we have no graphics for it.
+     */
+    public static int getKind(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_WEATHER_ID) {
+            return NONE;
+        }
+        return sKinds[weatherId];
+    }
+
+    /**
+     * Returns the name of a condition in the art pack URLs, or null if there is none.
+     */
+    public static String getArtName(int weatherId) {
+        return ART_NAMES[getKind(weatherId)];
+    }
+
+    /**
+     * Returns a photo of a condition, or null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getKind(weatherId)];
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+    Checks the condition table against the if/else chains it replaced, which are copied below
+    as they were, for every code and for ids out of range.
+ */
+public class WeatherConditionsTest {
+
+    // Every code, and enough on either side to cover the range checks
+    private static final int FIRST_WEATHER_ID = -1000;
+    private static final int LAST_WEATHER_ID = 2000;
+
+    @Test
+    public void testArtNamesMatchChain() {
+        for (int weatherId = FIRST_WEATHER_ID; weatherId <= LAST_WEATHER_ID; weatherId++) {
+            assertEquals("Error: wrong art for weather id " + weatherId,
+                    chainArtName(weatherId), WeatherConditions.getArtName(weatherId));
+        }
+    }
+
+    @Test
+    public void testImageUrlsMatchChain() {
+        for (int weatherId = FIRST_WEATHER_ID; weatherId <= LAST_WEATHER_ID; weatherId++) {
+            assertEquals("Error: wrong image for weather id " + weatherId,
+                    chainImageUrl(weatherId), WeatherConditions.getImageUrl(weatherId));
+        }
+    }
+
+    @Test
+    public void testKindsMatchChain() {
+        for (int weatherId = FIRST_WEATHER_ID; weatherId <= LAST_WEATHER_ID; weatherId++) {
+            assertEquals("Error: wrong kind for weather id " + weatherId,
+                    chainKind(weatherId), WeatherConditions.getKind(weatherId));
+        }
+    }
+
+    @Test
+    public void testSpecialCases() {
+        // 761 was caught by the fog range before the storm branch could see it
+        assertEquals(WeatherConditions.FOG, WeatherConditions.getKind(761));
+        // 781 is drawn as a storm, but with the dust photo
+        assertEquals(WeatherConditions.TORNADO, WeatherConditions.getKind(781));
+        assertEquals("storm", WeatherConditions.getArtName(781));
+        assertEquals(
+                "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+                WeatherConditions.getImageUrl(781));
+
+        assertEquals(WeatherConditions.NONE, WeatherConditions.getKind(Integer.MIN_VALUE));
+        assertEquals(WeatherConditions.NONE, WeatherConditions.getKind(Integer.MAX_VALUE));
+        assertEquals(WeatherConditions.NONE,
+                WeatherConditions.getKind(WeatherConditions.MAX_WEATHER_ID + 1));
+    }
+
+    /*
+        The icon chain of the app and the watch, with each icon replaced by its kind.
+     */
+    private static int chainKind(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return WeatherConditions.STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return WeatherConditions.LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return WeatherConditions.RAIN;
+        } else if (weatherId == 511) {
+            return WeatherConditions.SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return WeatherConditions.RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return WeatherConditions.SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return WeatherConditions.FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            // Storm icon and art, only the photo differs
+            return WeatherConditions.TORNADO;
+        } else if (weatherId == 800) {
+            return WeatherConditions.CLEAR;
+        } else if (weatherId == 801) {
+            return WeatherConditions.LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return WeatherConditions.CLOUDS;
+        }
+        return WeatherConditions.NONE;
+    }
+
+    private static String chainArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    private static String chainImageUrl(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+}